@@ -0,0 +1,171 @@
+package com.kevinherron.ignition.modbus;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ArrayAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.address.ModbusCodec;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.milo.opcua.sdk.core.NumericRange;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+
+/**
+ * The elements of an {@link ArrayAddress} selected by an OPC UA IndexRange.
+ *
+ * <p>The selection is mapped onto the registers, or bits, that hold it: a run of consecutive
+ * elements for each combination of indices in the outer dimensions, merged into a single run when
+ * the inner dimensions are selected in full. Only the runs are read or written, so a slice of a
+ * large array costs no more than the slice itself.
+ */
+final class ArraySlice {
+
+  private final List<ArrayAddress> runs;
+  private final int runLength;
+  private final ModbusCodec.ArrayCodec codec;
+
+  private ArraySlice(List<ArrayAddress> runs, int runLength, ModbusCodec.ArrayCodec codec) {
+    this.runs = runs;
+    this.runLength = runLength;
+    this.codec = codec;
+  }
+
+  /**
+   * @return the runs of consecutive elements in the slice, each as a one-dimensional array
+   *     address, in row-major order.
+   */
+  List<ArrayAddress> getRuns() {
+    return runs;
+  }
+
+  /**
+   * Join the values read from each of {@link #getRuns()} into the value of the slice.
+   *
+   * @param runValues the value read from each run.
+   * @return the slice value, an array with the dimensions of the selection.
+   */
+  Object join(Object[] runValues) {
+    var elements = new Object[codec.getLength()];
+
+    for (int i = 0; i < runValues.length; i++) {
+      System.arraycopy((Object[]) runValues[i], 0, elements, i * runLength, runLength);
+    }
+
+    return codec.toValue(elements);
+  }
+
+  /**
+   * Split a value to write to the slice into the values to write to each of {@link #getRuns()}.
+   *
+   * @param value the slice value, an array with the dimensions of the selection.
+   * @return the value to write to each run.
+   * @throws UaException if {@code value} isn't an array of the right type and dimensions.
+   */
+  Object[] split(Object value) throws UaException {
+    Object[] elements = codec.toElements(value);
+    Class<?> elementType = codec.getElement().getValueType();
+
+    var runValues = new Object[runs.size()];
+    for (int i = 0; i < runValues.length; i++) {
+      var run = (Object[]) Array.newInstance(elementType, runLength);
+      System.arraycopy(elements, i * runLength, run, 0, runLength);
+      runValues[i] = run;
+    }
+    return runValues;
+  }
+
+  /**
+   * Map {@code indexRange} onto the elements of {@code address}.
+   *
+   * <p>A range that is well-formed but doesn't fit the array fails with {@code
+   * Bad_IndexRangeNoData}, whether read or written: a scalar address, a range with the wrong number
+   * of dimensions, or one starting, or for a write ending, past the end of a dimension. {@code
+   * Bad_IndexRangeInvalid} is left to mean that the range couldn't be parsed, as it does for
+   * {@link NumericRange#parse(String)}, so clients can tell a bad request from a bad selection.
+   *
+   * @param address the address the range applies to.
+   * @param indexRange the {@link NumericRange} to select.
+   * @param write {@code true} if the slice is to be written; ranges that extend past the end of
+   *     the array are then rejected rather than truncated.
+   * @return the {@link ArraySlice}.
+   * @throws UaException if {@code address} isn't an array or the range selects no elements of it.
+   */
+  static ArraySlice of(ModbusAddress address, NumericRange indexRange, boolean write)
+      throws UaException {
+
+    if (!(address instanceof ArrayAddress array)) {
+      throw new UaException(StatusCodes.Bad_IndexRangeNoData);
+    }
+
+    int[] dimensions = array.getDimensions();
+    NumericRange.Bounds[] bounds = indexRange.getBounds();
+
+    if (bounds.length != dimensions.length) {
+      throw new UaException(StatusCodes.Bad_IndexRangeNoData);
+    }
+
+    int[] low = new int[dimensions.length];
+    int[] lengths = new int[dimensions.length];
+
+    for (int i = 0; i < dimensions.length; i++) {
+      int high = bounds[i].getHigh();
+
+      if (bounds[i].getLow() >= dimensions[i] || (write && high >= dimensions[i])) {
+        throw new UaException(StatusCodes.Bad_IndexRangeNoData);
+      }
+
+      low[i] = bounds[i].getLow();
+      lengths[i] = Math.min(high, dimensions[i] - 1) - low[i] + 1;
+    }
+
+    // dimensions after `split` are selected in full, so each run spans them
+    int split = dimensions.length - 1;
+    while (split > 0 && lengths[split] == dimensions[split]) {
+      split--;
+    }
+
+    int runLength = 1;
+    for (int i = split; i < dimensions.length; i++) {
+      runLength *= lengths[i];
+    }
+
+    ModbusCodec element = ((ModbusCodec.ArrayCodec) array.getCodec()).getElement();
+    ModbusArea area = array.getArea();
+    int elementSize =
+        area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS
+            ? 1
+            : element.getRegisterCount();
+
+    var runs = new ArrayList<ArrayAddress>();
+    int[] index = low.clone();
+
+    while (true) {
+      int position = 0;
+      for (int i = 0; i < dimensions.length; i++) {
+        position = position * dimensions[i] + index[i];
+      }
+
+      runs.add(
+          new ArrayAddress(
+              array.getUnitId().orElse(null),
+              area,
+              array.getOffset() + position * elementSize,
+              array.getDataType(),
+              array.getDataTypeModifiers(),
+              new int[] {runLength}));
+
+      // advance to the start of the next run, or stop after the last
+      int i = split - 1;
+      while (i >= 0 && ++index[i] == low[i] + lengths[i]) {
+        index[i] = low[i];
+        i--;
+      }
+      if (i < 0) {
+        break;
+      }
+    }
+
+    return new ArraySlice(List.copyOf(runs), runLength, ModbusCodec.array(element, lengths));
+  }
+}
@@ -39,12 +39,15 @@ public class BrowsableAddressSpace extends ManagedAddressSpaceFragmentWithLifecy
 
   private final ModbusServerDevice device;
   private final SubscriptionModel subscriptionModel;
+  private final DiagnosticsFolder diagnosticsFolder;
 
   public BrowsableAddressSpace(OpcUaServer server, ModbusServerDevice device) {
     super(server, device);
 
     this.device = device;
 
+    String prefix = "[%s]".formatted(device.deviceContext.getName());
+
     filter =
         SimpleAddressSpaceFilter.create(
             nodeId -> {
@@ -52,22 +55,23 @@ public class BrowsableAddressSpace extends ManagedAddressSpaceFragmentWithLifecy
                 logger.debug("filtering: {}", nodeId);
               }
 
-              if (getNodeManager().containsNode(nodeId)) {
-                return true;
-              } else {
-                String id = nodeId.getIdentifier().toString();
-                id = id.substring(device.deviceContext.getName().length() + 2);
-                return switch (id) {
-                  case "Coils", "DiscreteInputs", "HoldingRegisters", "InputRegisters" -> true;
-                  default -> enumeratedAreaPattern.matcher(id).matches();
-                };
+              // every node of this fragment is prefixed with the device name; anything else is
+              // rejected before the node manager is consulted.
+              if (!(nodeId.getIdentifier() instanceof String id) || !id.startsWith(prefix)) {
+                return false;
               }
+
+              return getNodeManager().containsNode(nodeId) || isFolder(id, prefix.length());
             });
 
     subscriptionModel = new SubscriptionModel(server, this);
     getLifecycleManager().addLifecycle(subscriptionModel);
 
     getLifecycleManager().addStartupTask(this::addNodes);
+
+    // started after addNodes has created the folder's variables
+    diagnosticsFolder = new DiagnosticsFolder(this, device);
+    getLifecycleManager().addLifecycle(diagnosticsFolder);
   }
 
   @Override
@@ -341,6 +345,8 @@ public class BrowsableAddressSpace extends ManagedAddressSpaceFragmentWithLifecy
     addDiscreteInputsNode(deviceNode);
     addHoldingRegistersNode(deviceNode);
     addInputRegistersNode(deviceNode);
+
+    diagnosticsFolder.addNodes(deviceNode);
   }
 
   private void addCoilsNode(UaFolderNode deviceNode) {
@@ -397,6 +403,49 @@ public class BrowsableAddressSpace extends ManagedAddressSpaceFragmentWithLifecy
 
   record Range(int start, int end) {}
 
+  /**
+   * Check if {@code id}, starting at {@code from}, names one of the area folders or an enumerated
+   * area folder like {@code _HR100_}, without allocating or matching {@link
+   * #enumeratedAreaPattern}.
+   */
+  private static boolean isFolder(String id, int from) {
+    if (isName(id, from, "Coils")
+        || isName(id, from, "DiscreteInputs")
+        || isName(id, from, "HoldingRegisters")
+        || isName(id, from, "InputRegisters")) {
+      return true;
+    }
+
+    if (id.length() - from < 4 || id.charAt(from) != '_' || id.charAt(id.length() - 1) != '_') {
+      return false;
+    }
+
+    int i = from + 1;
+    if (id.startsWith("C", i)) {
+      i += 1;
+    } else if (id.startsWith("DI", i) || id.startsWith("HR", i) || id.startsWith("IR", i)) {
+      i += 2;
+    } else {
+      return false;
+    }
+
+    int end = id.length() - 1;
+    if (i == end) {
+      return false;
+    }
+    for (; i < end; i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isName(String id, int from, String name) {
+    return id.length() - from == name.length() && id.startsWith(name, from);
+  }
+
   static List<Range> parseRanges(String ranges) {
     var rangeList = new ArrayList<Range>();
     for (String range : ranges.split(",")) {
@@ -0,0 +1,101 @@
+package com.kevinherron.ignition.modbus;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * A deadband applied to numeric values before they're delivered to subscribed {@link DataItem}s.
+ *
+ * <p>A new value is only delivered if it differs from the last value delivered to the same item
+ * by more than the deadband, so values that jitter within the deadband don't become notifications.
+ * Arrays are delivered if any element moved outside the deadband. Changes of status, type, or
+ * non-numeric value are always delivered.
+ */
+final class Deadband {
+
+  private final Map<DataItem, DataValue> delivered = new ConcurrentHashMap<>();
+
+  private final DeadbandType type;
+  private final double deadband;
+
+  /**
+   * @param type how {@code deadband} is interpreted.
+   * @param deadband the deadband; {@code 0} to deliver every value.
+   */
+  Deadband(DeadbandType type, double deadband) {
+    this.type = type;
+    this.deadband = deadband;
+  }
+
+  /**
+   * Deliver {@code value} to {@code item} unless it's within the deadband of the last value
+   * delivered to it.
+   *
+   * @param item the {@link DataItem} to deliver to.
+   * @param value the new value.
+   */
+  void deliver(DataItem item, DataValue value) {
+    if (deadband > 0) {
+      DataValue last = delivered.get(item);
+
+      if (last != null && !exceeds(last, value)) {
+        return;
+      }
+      delivered.put(item, value);
+    }
+
+    item.setValue(value);
+  }
+
+  /**
+   * Forget the last value delivered to {@code item}, so the next value is delivered regardless.
+   *
+   * @param item the {@link DataItem} that was deleted or stopped sampling.
+   */
+  void reset(DataItem item) {
+    delivered.remove(item);
+  }
+
+  private boolean exceeds(DataValue last, DataValue value) {
+    if (!Objects.equals(last.getStatusCode(), value.getStatusCode())) {
+      return true;
+    }
+
+    return exceeds(last.getValue().getValue(), value.getValue().getValue());
+  }
+
+  private boolean exceeds(Object last, Object value) {
+    if (last instanceof Number l && value instanceof Number v && l.getClass() == v.getClass()) {
+      return exceeds(l.doubleValue(), v.doubleValue());
+    } else if (last instanceof Object[] l && value instanceof Object[] v) {
+      if (l.length != v.length) {
+        return true;
+      }
+      for (int i = 0; i < l.length; i++) {
+        if (exceeds(l[i], v[i])) {
+          return true;
+        }
+      }
+      return false;
+    } else {
+      return !Objects.equals(last, value);
+    }
+  }
+
+  private boolean exceeds(double last, double value) {
+    double delta = Math.abs(value - last);
+
+    if (Double.isNaN(delta)) {
+      // NaN to a number, or the reverse, is always a change; NaN to NaN never is
+      return Double.isNaN(last) != Double.isNaN(value);
+    }
+
+    return switch (type) {
+      case ABSOLUTE -> delta > deadband;
+      case PERCENT -> delta > Math.abs(last) * deadband / 100.0;
+    };
+  }
+}
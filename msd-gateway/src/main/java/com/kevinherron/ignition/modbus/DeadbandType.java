@@ -0,0 +1,14 @@
+package com.kevinherron.ignition.modbus;
+
+/** How the deadband applied to subscribed numeric values is interpreted. */
+public enum DeadbandType {
+
+  /** A value is delivered if it differs from the last delivered value by more than the deadband. */
+  ABSOLUTE,
+
+  /**
+   * A value is delivered if it differs from the last delivered value by more than the deadband
+   * percent of the last delivered value.
+   */
+  PERCENT
+}
@@ -0,0 +1,309 @@
+package com.kevinherron.ignition.modbus;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
+import com.kevinherron.ignition.modbus.image.ProcessImagePersistence;
+import com.kevinherron.ignition.modbus.metrics.ModbusServerMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.Lifecycle;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@code _Diagnostics} folder under the device node, holding read-only variables with live
+ * statistics about the device, so load on the driver can be trended and alarmed on with ordinary
+ * tags.
+ *
+ * <p>Every {@value #UPDATE_INTERVAL} ms each variable is given a new value. Rates and averages
+ * are computed from the change in the underlying counters since the previous update; an average
+ * over an update with nothing to average keeps its previous value.
+ */
+final class DiagnosticsFolder implements Lifecycle {
+
+  /** How often, in milliseconds, the variables are updated. */
+  static final long UPDATE_INTERVAL = 1000;
+
+  private static final String FOLDER = "_Diagnostics";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+  private @Nullable ScheduledFuture<?> updateFuture;
+  private long lastUpdate = System.nanoTime();
+
+  private final BrowsableAddressSpace addressSpace;
+  private final ModbusServerDevice device;
+
+  DiagnosticsFolder(BrowsableAddressSpace addressSpace, ModbusServerDevice device) {
+    this.addressSpace = addressSpace;
+    this.device = device;
+  }
+
+  /**
+   * Create the folder and its variables, organized by {@code deviceNode}.
+   *
+   * @param deviceNode the device's {@link UaFolderNode}.
+   */
+  void addNodes(UaFolderNode deviceNode) {
+    ModbusServerMetrics metrics = device.metrics;
+
+    UaFolderNode folder = addFolder(deviceNode, FOLDER);
+
+    addVariable(
+        folder,
+        "ConnectedClients",
+        "Modbus clients that made a request in the last %d seconds."
+            .formatted(ModbusServerMetrics.CLIENT_TIMEOUT),
+        Identifiers.Int32,
+        seconds -> metrics.getClientCount());
+
+    addVariable(
+        folder,
+        "RequestsPerSecond",
+        "Modbus requests served per second.",
+        Identifiers.Double,
+        rate(() -> metrics.total().getRequests()));
+
+    addVariable(
+        folder,
+        "ErrorsPerSecond",
+        "Modbus requests answered with an exception response per second.",
+        Identifiers.Double,
+        rate(() -> metrics.total().getErrors()));
+
+    UaFolderNode functionCodes = addFolder(folder, FOLDER + "/RequestsPerSecondByFunctionCode");
+
+    for (FunctionCode functionCode : FunctionCode.values()) {
+      addVariable(
+          functionCodes,
+          functionCode.name(),
+          "Modbus %s requests served per second.".formatted(functionCode.name()),
+          Identifiers.Double,
+          rate(() -> metrics.functionCode(functionCode).getRequests()));
+    }
+
+    addVariable(
+        folder,
+        "OpcUaReadsPerSecond",
+        "Attributes read by OPC UA clients per second.",
+        Identifiers.Double,
+        rate(() -> addressSpaceCount(ModbusAddressSpace::getReadCount)));
+
+    addVariable(
+        folder,
+        "OpcUaWritesPerSecond",
+        "Attributes written by OPC UA clients per second.",
+        Identifiers.Double,
+        rate(() -> addressSpaceCount(ModbusAddressSpace::getWriteCount)));
+
+    addVariable(
+        folder,
+        "CoalescedValuesPerSecond",
+        "Values to deliver by exception superseded before they were delivered, per second.",
+        Identifiers.Double,
+        rate(() -> addressSpaceCount(ModbusAddressSpace::getCoalescedCount)));
+
+    addVariable(
+        folder,
+        "PersistenceQueueDepth",
+        "Modified bits and registers waiting to be persisted.",
+        Identifiers.Int64,
+        seconds -> persistenceSum(ProcessImagePersistence::getPendingCount));
+
+    addVariable(
+        folder,
+        "PersistenceFlushLatency",
+        "Mean time, in milliseconds, taken to write modifications to storage.",
+        Identifiers.Double,
+        mean(
+            () -> persistenceSum(p -> p.getFlushLatency().getTotal()) / 1e6,
+            () -> persistenceSum(p -> p.getFlushLatency().getCount())));
+
+    addVariable(
+        folder,
+        "ProcessImageMemory",
+        "Bytes of storage occupied by process images.",
+        Identifiers.Int64,
+        seconds -> device.getProcessImageCount() * ModbusProcessImage.STORAGE_SIZE);
+
+    addVariable(
+        folder,
+        "AddressCacheHitRate",
+        "Percent of address lookups answered from the address cache.",
+        Identifiers.Double,
+        mean(
+            () -> device.addressCache.getHitCount() * 100.0,
+            () -> device.addressCache.getHitCount() + device.addressCache.getMissCount()));
+
+    update();
+  }
+
+  @Override
+  public synchronized void startup() {
+    updateFuture =
+        device
+            .deviceContext
+            .getServer()
+            .getScheduledExecutorService()
+            .scheduleAtFixedRate(
+                this::update, UPDATE_INTERVAL, UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    if (updateFuture != null) {
+      updateFuture.cancel(false);
+      updateFuture = null;
+    }
+  }
+
+  /** Give every variable a new value. */
+  private synchronized void update() {
+    long now = System.nanoTime();
+    double seconds = Math.max(now - lastUpdate, 1L) / 1e9;
+    lastUpdate = now;
+
+    for (Diagnostic diagnostic : diagnostics) {
+      try {
+        Object value = diagnostic.sample().next(seconds);
+
+        if (value != null) {
+          diagnostic.node().setValue(new DataValue(new Variant(value)));
+        }
+      } catch (RuntimeException e) {
+        logger.warn("Error updating {}", diagnostic.node().getNodeId(), e);
+      }
+    }
+  }
+
+  private UaFolderNode addFolder(UaFolderNode parent, String id) {
+    String name = id.substring(id.lastIndexOf('/') + 1);
+
+    var folder =
+        new UaFolderNode(
+            addressSpace.getNodeContext(),
+            device.deviceContext.nodeId(id),
+            device.deviceContext.qualifiedName(name),
+            new LocalizedText(name));
+
+    addressSpace.getNodeManager().addNode(folder);
+
+    parent.addOrganizes(folder);
+
+    return folder;
+  }
+
+  private void addVariable(
+      UaFolderNode folder, String name, String description, NodeId dataType, Sample sample) {
+
+    // the folder's id is prefixed with the device name, like the ids of every other device node
+    String folderId = folder.getNodeId().getIdentifier().toString();
+    String id = folderId.substring(device.deviceContext.getName().length() + 2) + "/" + name;
+
+    UaVariableNode node =
+        new UaVariableNode.UaVariableNodeBuilder(addressSpace.getNodeContext())
+            .setNodeId(device.deviceContext.nodeId(id))
+            .setAccessLevel(AccessLevel.READ_ONLY)
+            .setUserAccessLevel(AccessLevel.READ_ONLY)
+            .setBrowseName(device.deviceContext.qualifiedName(name))
+            .setDisplayName(LocalizedText.english(name))
+            .setDescription(LocalizedText.english(description))
+            .setDataType(dataType)
+            .setTypeDefinition(Identifiers.BaseDataVariableType)
+            .build();
+
+    addressSpace.getNodeManager().addNode(node);
+
+    folder.addOrganizes(node);
+
+    diagnostics.add(new Diagnostic(node, sample));
+  }
+
+  private long addressSpaceCount(ToLongFunction<ModbusAddressSpace> count) {
+    ModbusAddressSpace modbusAddressSpace = device.getModbusAddressSpace();
+
+    return modbusAddressSpace != null ? count.applyAsLong(modbusAddressSpace) : 0L;
+  }
+
+  private long persistenceSum(ToLongFunction<ProcessImagePersistence> value) {
+    long sum = 0;
+    for (ProcessImagePersistence persistence : device.getPersistences()) {
+      sum += value.applyAsLong(persistence);
+    }
+    return sum;
+  }
+
+  /**
+   * @return a {@link Sample} of how fast {@code counter} increased per second since the previous
+   *     update.
+   */
+  private static Sample rate(LongSupplier counter) {
+    var delta = new Delta(counter::getAsLong);
+
+    return seconds -> delta.next() / seconds;
+  }
+
+  /**
+   * @return a {@link Sample} of the increase in {@code total} divided by the increase in {@code
+   *     count} since the previous update, or {@code null} if {@code count} didn't increase.
+   */
+  private static Sample mean(DoubleSupplier total, LongSupplier count) {
+    var totalDelta = new Delta(total);
+    var countDelta = new Delta(count::getAsLong);
+
+    return seconds -> {
+      double t = totalDelta.next();
+      double n = countDelta.next();
+
+      return n > 0 ? t / n : null;
+    };
+  }
+
+  /** Computes the next value of a diagnostic variable. */
+  @FunctionalInterface
+  private interface Sample {
+
+    /**
+     * @param seconds the seconds elapsed since the previous update.
+     * @return the variable's new value, or {@code null} to keep its current value.
+     */
+    @Nullable Object next(double seconds);
+  }
+
+  private record Diagnostic(UaVariableNode node, Sample sample) {}
+
+  /** The change in a counter since it was last sampled. */
+  private static final class Delta {
+
+    private final DoubleSupplier counter;
+    private double last;
+
+    Delta(DoubleSupplier counter) {
+      this.counter = counter;
+      last = counter.getAsDouble();
+    }
+
+    double next() {
+      double value = counter.getAsDouble();
+      double delta = value - last;
+      last = value;
+      return delta;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.kevinherron.ignition.modbus;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddressParser;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, concurrent cache of the {@link ModbusAddress} parsed from each device NodeId.
+ *
+ * <p>NodeIds of this device that don't hold a valid address are cached too, so filtering, reading,
+ * and sampling the same NodeIds over and over doesn't parse anything once the cache is warm.
+ * NodeIds that don't belong to this device are rejected with a prefix check and never cached.
+ *
+ * <p>When the cache is full, an arbitrary tenth of the entries are evicted to make room.
+ */
+final class ModbusAddressCache {
+
+  static final int DEFAULT_CAPACITY = 65536;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<NodeId, Optional<ModbusAddress>> addresses = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private final String prefix;
+  private final int capacity;
+
+  /**
+   * @param deviceName the name of the device the NodeIds belong to.
+   * @param capacity the maximum number of NodeIds to cache.
+   */
+  ModbusAddressCache(String deviceName, int capacity) {
+    this.prefix = "[%s]".formatted(deviceName);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get the {@link ModbusAddress} held by {@code nodeId}, parsing it if it isn't cached yet.
+   *
+   * @param nodeId a {@link NodeId} of the form {@code [DeviceName]address}.
+   * @return the {@link ModbusAddress}, or empty if {@code nodeId} doesn't hold a valid address.
+   */
+  Optional<ModbusAddress> get(NodeId nodeId) {
+    Optional<ModbusAddress> address = addresses.get(nodeId);
+
+    if (address != null) {
+      hits.increment();
+    } else {
+      // NodeIds belonging to something else are rejected without being cached so they can't
+      // crowd out this device's addresses.
+      if (!(nodeId.getIdentifier() instanceof String id) || !id.startsWith(prefix)) {
+        return Optional.empty();
+      }
+
+      misses.increment();
+      address = parse(id);
+
+      if (addresses.size() >= capacity) {
+        evict();
+      }
+      addresses.put(nodeId, address);
+    }
+
+    return address;
+  }
+
+  /**
+   * @return the number of lookups of this device's NodeIds that were answered from the cache.
+   */
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of lookups of this device's NodeIds that had to be parsed.
+   */
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Remove every cached address. */
+  void clear() {
+    addresses.clear();
+  }
+
+  private Optional<ModbusAddress> parse(String id) {
+    String addr = id.substring(prefix.length());
+
+    Optional<ModbusAddress> address = ModbusAddressParser.tryParse(addr);
+    if (address.isEmpty()) {
+      logger.debug("Invalid address: id={}, addr={}", id, addr);
+    }
+    return address;
+  }
+
+  private void evict() {
+    int target = capacity - capacity / 10;
+
+    Iterator<NodeId> iterator = addresses.keySet().iterator();
+    while (iterator.hasNext() && addresses.size() > target) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+}
@@ -1,30 +1,16 @@
 package com.kevinherron.ignition.modbus;
 
-import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
-import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ulong;
-import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
-
-import com.digitalpetri.modbus.server.ProcessImage;
-import com.digitalpetri.modbus.server.ProcessImage.Modification.CoilModification;
-import com.digitalpetri.modbus.server.ProcessImage.Modification.DiscreteInputModification;
-import com.digitalpetri.modbus.server.ProcessImage.Modification.HoldingRegisterModification;
-import com.digitalpetri.modbus.server.ProcessImage.Modification.InputRegisterModification;
-import com.digitalpetri.modbus.server.ProcessImage.Transaction;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.OpcUa;
 import com.kevinherron.ignition.modbus.address.ModbusAddress;
-import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
-import com.kevinherron.ignition.modbus.address.ModbusAddressParser;
-import com.kevinherron.ignition.modbus.address.ModbusDataType;
-import com.kevinherron.ignition.modbus.util.ModbusByteUtil;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.NumericRange;
 import org.eclipse.milo.opcua.sdk.core.ValueRank;
 import org.eclipse.milo.opcua.sdk.server.Lifecycle;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFilter;
@@ -32,7 +18,6 @@ import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFragment;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
 import org.eclipse.milo.opcua.sdk.server.api.SimpleAddressSpaceFilter;
-import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
@@ -48,7 +33,7 @@ import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
 import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
-import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,46 +42,83 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
   private final Logger logger = LoggerFactory.getLogger(getClass());
 
   private final AddressSpaceFilter filter;
-  private final SubscriptionModel subscriptionModel;
+  private final SamplingModel samplingModel;
+
+  /** Delivers values by exception, or {@code null} if every item is sampled. */
+  private final @Nullable ReportByExceptionModel reportByExceptionModel;
+
+  private final LongAdder reads = new LongAdder();
+  private final LongAdder writes = new LongAdder();
 
   private final ModbusServerDevice device;
 
   public ModbusAddressSpace(ModbusServerDevice device) {
     this.device = device;
 
-    filter = new ModbusAddressFilter(device.getName());
-
-    subscriptionModel = new SubscriptionModel(device.deviceContext.getServer(), this);
+    filter = new ModbusAddressFilter();
+
+    var deadband =
+        new Deadband(
+            device.modbusServerSettings.getDeadbandType(),
+            device.modbusServerSettings.getDeadband());
+
+    samplingModel =
+        new SamplingModel(
+            this::read,
+            deadband,
+            device.deviceContext.getServer().getScheduledExecutorService(),
+            OpcUa.SHARED_EXECUTOR);
+
+    if (device.modbusServerSettings.getReportByException()) {
+      reportByExceptionModel =
+          new ReportByExceptionModel(
+              device,
+              deadband,
+              device.modbusServerSettings.getMinPublishInterval(),
+              device.deviceContext.getServer().getScheduledExecutorService(),
+              OpcUa.SHARED_EXECUTOR);
+    } else {
+      reportByExceptionModel = null;
+    }
   }
 
   @Override
   public void startup() {
-    if (device.modbusServerSettings.getPersistData()) {
-      Path deviceFolderPath = device.deviceContext.getDeviceFolderPath().toAbsolutePath();
+    samplingModel.startup();
 
-      if (!Files.exists(deviceFolderPath)) {
-        try {
-          Files.createDirectories(deviceFolderPath);
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
-      }
+    device.register(this);
+  }
 
-      loadProcessImage();
+  @Override
+  public void shutdown() {
+    samplingModel.shutdown();
 
-      device.processImage.addModificationListener(new ModificationListener());
+    if (reportByExceptionModel != null) {
+      reportByExceptionModel.shutdown();
     }
 
-    subscriptionModel.startup();
+    device.unregister(this);
+  }
 
-    device.register(this);
+  /**
+   * @return the number of attributes read by OPC UA clients; reads by sampling aren't counted.
+   */
+  long getReadCount() {
+    return reads.sum();
   }
 
-  @Override
-  public void shutdown() {
-    subscriptionModel.shutdown();
+  /**
+   * @return the number of attributes written by OPC UA clients.
+   */
+  long getWriteCount() {
+    return writes.sum();
+  }
 
-    device.unregister(this);
+  /**
+   * @return the number of values delivered by exception that were superseded before delivery.
+   */
+  long getCoalescedCount() {
+    return reportByExceptionModel != null ? reportByExceptionModel.getCoalescedCount() : 0L;
   }
 
   @Override
@@ -127,34 +149,55 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
       TimestampsToReturn timestamps,
       List<ReadValueId> readValueIds) {
 
+    reads.add(readValueIds.size());
+
+    context.success(read(readValueIds));
+  }
+
+  /**
+   * Read {@code readValueIds}, batching value reads per process image.
+   *
+   * @param readValueIds the {@link ReadValueId}s to read.
+   * @return the value read for each of {@code readValueIds}.
+   */
+  List<DataValue> read(List<ReadValueId> readValueIds) {
     List<PendingRead> pendingReads = readValueIds.stream().map(PendingRead::new).toList();
 
+    // value reads are batched per process image and served after all other attributes
+    var batches = new HashMap<ModbusProcessImage, ValueReadBatch>();
+
     for (PendingRead pending : pendingReads) {
       ReadValueId readValueId = pending.readValueId;
 
-      if (readValueId.getIndexRange() != null && !readValueId.getIndexRange().isEmpty()) {
-        // TODO support index ranges on array values
-        pending.value = new DataValue(StatusCodes.Bad_WriteNotSupported);
-        break;
-      }
+      ModbusAddress address = device.addressCache.get(readValueId.getNodeId()).orElse(null);
 
-      String id = readValueId.getNodeId().getIdentifier().toString();
-      String name = "[%s]".formatted(device.getName());
-      String addr = id.substring(id.indexOf(name) + name.length());
+      if (address == null) {
+        logger.error("Error reading value: invalid address: {}", readValueId.getNodeId());
+        pending.value = new DataValue(StatusCodes.Bad_ConfigurationError);
+        continue;
+      }
 
       try {
-        ModbusAddress address = ModbusAddressParser.parse(addr);
         AttributeId attributeId = AttributeId.from(readValueId.getAttributeId()).orElse(null);
 
+        NumericRange indexRange = parseIndexRange(readValueId.getIndexRange());
+
         if (attributeId == null) {
           pending.value = new DataValue(StatusCodes.Bad_AttributeIdInvalid);
         } else if (attributeId == AttributeId.Value) {
-          try {
-            Variant v = readValueAttribute(address);
-            pending.value = new DataValue(v);
-          } catch (UaException e) {
-            pending.value = new DataValue(e.getStatusCode());
+          pending.batch =
+              batches.computeIfAbsent(device.getProcessImage(address), ValueReadBatch::new);
+
+          if (indexRange == null) {
+            pending.batchIndex = pending.batch.add(address);
+          } else {
+            // the slice's runs get consecutive indices in the batch
+            pending.slice = ArraySlice.of(address, indexRange, false);
+            pending.batchIndex = pending.batch.size();
+            pending.slice.getRuns().forEach(pending.batch::add);
           }
+        } else if (indexRange != null) {
+          pending.value = new DataValue(StatusCodes.Bad_IndexRangeNoData);
         } else {
           try {
             Variant v = readNonValueAttribute(readValueId.getNodeId(), attributeId, address);
@@ -163,82 +206,59 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
             pending.value = new DataValue(e.getStatusCode());
           }
         }
+      } catch (UaException e) {
+        pending.batch = null;
+        pending.value = new DataValue(e.getStatusCode());
       } catch (Exception e) {
-        logger.error("Error reading value: id={}, addr={}", id, addr, e);
+        logger.error("Error reading value: id={}", readValueId.getNodeId(), e);
         pending.value = new DataValue(StatusCodes.Bad_ConfigurationError);
       }
     }
 
-    context.success(pendingReads.stream().map(p -> p.value).toList());
+    for (ValueReadBatch batch : batches.values()) {
+      batch.read();
+    }
+    for (PendingRead pending : pendingReads) {
+      if (pending.batch != null && pending.slice != null) {
+        pending.value = readSlice(pending.batch, pending.batchIndex, pending.slice);
+      } else if (pending.batch != null) {
+        pending.value = pending.batch.get(pending.batchIndex);
+      }
+    }
+
+    return pendingReads.stream().map(p -> p.value).toList();
   }
 
-  private Variant readValueAttribute(ModbusAddress address) throws UaException {
-    ModbusArea area = address.getArea();
+  /**
+   * @return the value of {@code slice}, joined from its runs read at {@code index} onwards in
+   *     {@code batch}, or the first bad result of any run.
+   */
+  private static DataValue readSlice(ValueReadBatch batch, int index, ArraySlice slice) {
+    var runValues = new Object[slice.getRuns().size()];
 
-    return switch (area) {
-      case COILS:
-        {
-          boolean value =
-              device.processImage.get(
-                  tx -> tx.readCoils(coilMap -> coilMap.getOrDefault(address.getOffset(), false)));
+    for (int i = 0; i < runValues.length; i++) {
+      DataValue value = batch.get(index + i);
+      if (!value.getStatusCode().isGood()) {
+        return value;
+      }
+      runValues[i] = value.getValue().getValue();
+    }
 
-          yield new Variant(value);
-        }
-      case DISCRETE_INPUTS:
-        {
-          boolean value =
-              device.processImage.get(
-                  tx ->
-                      tx.readDiscreteInputs(
-                          discreteInputMap ->
-                              discreteInputMap.getOrDefault(address.getOffset(), false)));
-
-          yield new Variant(value);
-        }
-      case HOLDING_REGISTERS:
-        {
-          //noinspection DuplicatedCode
-          byte[] bs =
-              device.processImage.get(
-                  tx ->
-                      tx.readHoldingRegisters(
-                          holdingRegisterMap -> {
-                            var registers = new byte[address.getDataType().getRegisterCount() * 2];
-
-                            for (int i = 0; i < registers.length / 2; i++) {
-                              byte[] value =
-                                  holdingRegisterMap.getOrDefault(
-                                      address.getOffset() + i, new byte[2]);
-                              registers[i * 2] = value[0];
-                              registers[i * 2 + 1] = value[1];
-                            }
-
-                            return registers;
-                          }));
-
-          yield new Variant(ModbusByteUtil.getValueForBytes(bs, address));
-        }
-      case INPUT_REGISTERS:
-        //noinspection DuplicatedCode
-        byte[] bs =
-            device.processImage.get(
-                tx ->
-                    tx.readInputRegisters(
-                        inputRegisterMap -> {
-                          var registers = new byte[address.getDataType().getRegisterCount() * 2];
-
-                          for (int i = 0; i < registers.length / 2; i++) {
-                            byte[] value =
-                                inputRegisterMap.getOrDefault(address.getOffset() + i, new byte[2]);
-                            registers[i * 2] = value[0];
-                            registers[i * 2 + 1] = value[1];
-                          }
-
-                          return registers;
-                        }));
-
-        yield new Variant(ModbusByteUtil.getValueForBytes(bs, address));
-    };
+    return new DataValue(new Variant(slice.join(runValues)));
+  }
+
+  /**
+   * @return the parsed {@code indexRange}, or {@code null} if there is none.
+   * @throws UaException if {@code indexRange} is not a valid {@link NumericRange}.
+   */
+  private static @Nullable NumericRange parseIndexRange(@Nullable String indexRange)
+      throws UaException {
+
+    if (indexRange == null || indexRange.isEmpty()) {
+      return null;
+    } else {
+      return NumericRange.parse(indexRange);
+    }
   }
 
   private Variant readNonValueAttribute(
@@ -269,7 +289,9 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
           }
           case ArrayDimensions -> {
             if (address instanceof ModbusAddress.ArrayAddress a) {
-              yield Arrays.stream(a.getDimensions()).mapToObj(Unsigned::uint).toArray();
+              yield Arrays.stream(a.getDimensions())
+                  .mapToObj(Unsigned::uint)
+                  .toArray(UInteger[]::new);
             } else {
               yield null;
             }
@@ -296,449 +318,121 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
 
   @Override
   public void write(WriteContext context, List<WriteValue> writeValues) {
-    var pendingWrites = writeValues.stream().map(PendingWrite::new).toList();
+    writes.add(writeValues.size());
+
+    var pendingWrites = new ArrayList<PendingWrite>(writeValues.size());
+    writeValues.forEach(writeValue -> pendingWrites.add(new PendingWrite(writeValue)));
 
     var pendingValueWrites = new ArrayList<PendingValueWrite>();
 
-    for (PendingWrite pending : pendingWrites) {
+    for (int index = 0; index < pendingWrites.size(); index++) {
+      PendingWrite pending = pendingWrites.get(index);
       WriteValue writeValue = pending.writeValue;
 
-      if (writeValue.getIndexRange() != null && !writeValue.getIndexRange().isEmpty()) {
-        // TODO support index ranges on array values
-        pending.statusCode = new StatusCode(StatusCodes.Bad_WriteNotSupported);
-        break;
-      }
-
       AttributeId attributeId = AttributeId.from(writeValue.getAttributeId()).orElse(null);
 
       if (attributeId == null) {
         pending.statusCode = new StatusCode(StatusCodes.Bad_AttributeIdInvalid);
       } else if (attributeId == AttributeId.Value) {
-        String id = writeValue.getNodeId().getIdentifier().toString();
-        String name = "[%s]".formatted(device.getName());
-        String addr = id.substring(id.indexOf(name) + name.length());
-        try {
-          ModbusAddress address = ModbusAddressParser.parse(addr);
-          pendingValueWrites.add(new PendingValueWrite(writeValue, address));
-        } catch (Exception e) {
+        ModbusAddress address = device.addressCache.get(writeValue.getNodeId()).orElse(null);
+
+        if (address == null) {
           pending.statusCode = new StatusCode(StatusCodes.Bad_ConfigurationError);
+          continue;
+        }
+
+        // the response is built from pendingWrites, so it must report this write's result
+        var pvw = new PendingValueWrite(writeValue, address);
+        pendingWrites.set(index, pvw);
+
+        try {
+          NumericRange indexRange = parseIndexRange(writeValue.getIndexRange());
+
+          if (indexRange != null) {
+            pvw.slice = ArraySlice.of(address, indexRange, true);
+            pvw.runValues = pvw.slice.split(writeValue.getValue().getValue().getValue());
+          }
+          pendingValueWrites.add(pvw);
+        } catch (UaException e) {
+          pvw.statusCode = e.getStatusCode();
         }
       } else {
         pending.statusCode = new StatusCode(StatusCodes.Bad_NotWritable);
       }
     }
 
+    // value writes are batched per process image and applied atomically
+    var batches = new HashMap<ModbusProcessImage, ValueWriteBatch>();
+
     for (PendingValueWrite pvw : pendingValueWrites) {
-      try {
-        writeValueAttribute(pvw.address, pvw.writeValue.getValue().getValue());
-        pvw.statusCode = StatusCode.GOOD;
-      } catch (UaException e) {
-        pvw.statusCode = e.getStatusCode();
-      } catch (RuntimeException e) {
-        if (e.getCause() instanceof UaException uax) {
-          pvw.statusCode = uax.getStatusCode();
-        } else {
-          pvw.statusCode = new StatusCode(StatusCodes.Bad_InternalError);
-        }
-      }
-    }
+      pvw.batch =
+          batches.computeIfAbsent(device.getProcessImage(pvw.address), ValueWriteBatch::new);
 
-    context.success(pendingWrites.stream().map(p -> p.statusCode).toList());
-  }
+      if (pvw.slice == null) {
+        pvw.batchIndex = pvw.batch.add(pvw.address, pvw.writeValue.getValue().getValue());
+      } else {
+        // the slice's runs get consecutive indices in the batch
+        List<ModbusAddress.ArrayAddress> runs = pvw.slice.getRuns();
+        Object[] runValues = Objects.requireNonNull(pvw.runValues);
 
-  private void writeValueAttribute(ModbusAddress address, Variant variant) throws UaException {
-    switch (address.getArea()) {
-      case COILS -> {
-        if (variant.getValue() instanceof Boolean b) {
-          device.processImage.with(
-              tx -> tx.writeCoils(coilMap -> coilMap.put(address.getOffset(), b)));
-        } else {
-          throw new UaException(StatusCodes.Bad_TypeMismatch);
+        pvw.batchIndex = pvw.batch.size();
+        for (int i = 0; i < runs.size(); i++) {
+          pvw.batch.add(runs.get(i), new Variant(runValues[i]));
         }
       }
-      case DISCRETE_INPUTS -> {
-        if (variant.getValue() instanceof Boolean b) {
-          device.processImage.with(
-              tx ->
-                  tx.writeDiscreteInputs(
-                      discreteInputMap -> discreteInputMap.put(address.getOffset(), b)));
-        } else {
-          throw new UaException(StatusCodes.Bad_TypeMismatch);
-        }
-      }
-      case HOLDING_REGISTERS -> {
-        checkDataType(address.getDataType(), variant);
-
-        if (address.getDataType() instanceof ModbusDataType.Bit dataType) {
-          device.processImage.with(
-              tx ->
-                  tx.writeHoldingRegisters(
-                      holdingRegisterMap -> {
-                        try {
-                          writeBitToRegister(address, variant, dataType, holdingRegisterMap);
-                        } catch (UaException e) {
-                          throw new RuntimeException(e);
-                        }
-                      }));
-        } else {
-          byte[] registers = ModbusByteUtil.getBytesForValue(variant.getValue(), address);
-
-          device.processImage.with(
-              tx ->
-                  tx.writeHoldingRegisters(
-                      holdingRegisterMap -> {
-                        for (int i = 0; i < registers.length / 2; i++) {
-                          byte[] value = new byte[] {registers[i * 2], registers[i * 2 + 1]};
-                          holdingRegisterMap.put(address.getOffset() + i, value);
-                        }
-                      }));
-        }
-      }
-      case INPUT_REGISTERS -> {
-        checkDataType(address.getDataType(), variant);
-
-        if (address.getDataType() instanceof ModbusDataType.Bit dataType) {
-          device.processImage.with(
-              tx ->
-                  tx.writeInputRegisters(
-                      inputRegisterMap -> {
-                        try {
-                          writeBitToRegister(address, variant, dataType, inputRegisterMap);
-                        } catch (UaException e) {
-                          throw new RuntimeException(e);
-                        }
-                      }));
-        } else {
-          byte[] registers = ModbusByteUtil.getBytesForValue(variant.getValue(), address);
-
-          device.processImage.with(
-              tx ->
-                  tx.writeInputRegisters(
-                      inputRegisterMap -> {
-                        for (int i = 0; i < registers.length / 2; i++) {
-                          byte[] value = new byte[] {registers[i * 2], registers[i * 2 + 1]};
-                          inputRegisterMap.put(address.getOffset() + i, value);
-                        }
-                      }));
-        }
-      }
-      default -> throw new IllegalArgumentException("area: " + address.getArea());
-    }
-  }
-
-  /**
-   * Check that a value is of the correct type for the given ModbusDataType.
-   *
-   * @param dataType the {@link ModbusDataType}.
-   * @param variant the {@link Variant} to check.
-   * @throws UaException if the value is {@code null}, or not of the correct type.
-   */
-  private static void checkDataType(ModbusDataType dataType, Variant variant) throws UaException {
-    Object value = variant.getValue();
-    if (value == null) {
-      throw new UaException(StatusCodes.Bad_TypeMismatch);
     }
 
-    Class<?> actualType = variant.getValue().getClass();
-    Class<?> expectedType = dataType.getBuiltinDataType().getBackingClass();
-
-    if (!expectedType.isAssignableFrom(actualType)) {
-      throw new UaException(StatusCodes.Bad_TypeMismatch);
+    for (ValueWriteBatch batch : batches.values()) {
+      batch.write();
     }
-  }
-
-  private static void writeBitToRegister(
-      ModbusAddress address,
-      Variant variant,
-      ModbusDataType.Bit dataType,
-      Map<Integer, byte[]> registerMap)
-      throws UaException {
-
-    int bitIndex = dataType.bit();
-    ModbusDataType underlyingType = dataType.underlyingType();
-
-    var bytes = new byte[underlyingType.getRegisterCount() * 2];
-
-    for (int i = 0; i < bytes.length / 2; i++) {
-      byte[] value = registerMap.getOrDefault(address.getOffset() + i, new byte[2]);
-      bytes[i * 2] = value[0];
-      bytes[i * 2 + 1] = value[1];
-    }
-
-    Object underlyingValue =
-        ModbusByteUtil.getValueForBytes(bytes, underlyingType, address.getDataTypeModifiers());
+    for (PendingValueWrite pvw : pendingValueWrites) {
+      int runs = pvw.slice != null ? pvw.slice.getRuns().size() : 1;
 
-    if (underlyingValue instanceof Number n) {
-      long mask = 1L << bitIndex;
-      long v = n.longValue();
-      if (variant.getValue() instanceof Boolean b) {
-        if (b) {
-          v |= mask;
-        } else {
-          v &= ~mask;
-        }
-        byte[] newBytes =
-            ModbusByteUtil.getBytesForValue(
-                castToUnderlying(v, underlyingType),
-                underlyingType,
-                address.getDataTypeModifiers());
-
-        for (int i = 0; i < newBytes.length / 2; i++) {
-          byte[] value = new byte[] {newBytes[i * 2], newBytes[i * 2 + 1]};
-          registerMap.put(address.getOffset() + i, value);
-        }
-      } else {
-        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      pvw.statusCode = StatusCode.GOOD;
+      for (int i = 0; i < runs && pvw.statusCode.isGood(); i++) {
+        pvw.statusCode = pvw.batch.get(pvw.batchIndex + i);
       }
-    } else {
-      throw new UaException(StatusCodes.Bad_InternalError);
     }
-  }
 
-  private static Number castToUnderlying(long value, ModbusDataType dataType) {
-    if (dataType instanceof ModbusDataType.Int16) {
-      return (short) value;
-    } else if (dataType instanceof ModbusDataType.Int32) {
-      return (int) value;
-    } else if (dataType instanceof ModbusDataType.Int64) {
-      return value;
-    } else if (dataType instanceof ModbusDataType.UInt16) {
-      return ushort((int) value);
-    } else if (dataType instanceof ModbusDataType.UInt32) {
-      return uint(value);
-    } else if (dataType instanceof ModbusDataType.UInt64) {
-      return ulong(value);
-    } else {
-      throw new IllegalArgumentException("value=" + value + ", dataType=" + dataType);
-    }
+    context.success(pendingWrites.stream().map(p -> p.statusCode).toList());
   }
 
   // endregion
 
   // region Subscribe
 
+  // Items the report-by-exception model can't deliver to are sampled by the SamplingModel.
+
   @Override
   public void onDataItemsCreated(List<DataItem> items) {
-    subscriptionModel.onDataItemsCreated(items);
+    if (reportByExceptionModel != null) {
+      items = reportByExceptionModel.onDataItemsCreated(items);
+    }
+    samplingModel.onDataItemsCreated(items);
   }
 
   @Override
   public void onDataItemsModified(List<DataItem> items) {
-    subscriptionModel.onDataItemsModified(items);
+    if (reportByExceptionModel != null) {
+      items = reportByExceptionModel.onDataItemsModified(items);
+    }
+    samplingModel.onDataItemsModified(items);
   }
 
   @Override
   public void onDataItemsDeleted(List<DataItem> items) {
-    subscriptionModel.onDataItemsDeleted(items);
+    if (reportByExceptionModel != null) {
+      items = reportByExceptionModel.onDataItemsDeleted(items);
+    }
+    samplingModel.onDataItemsDeleted(items);
   }
 
   @Override
   public void onMonitoringModeChanged(List<MonitoredItem> items) {
-    subscriptionModel.onMonitoringModeChanged(items);
-  }
-
-  // endregion
-
-  // region ProcessImage Load/Save
-
-  private void loadProcessImage() {
-    device.processImage.with(
-        tx -> {
-          loadCoils(tx);
-          loadDiscreteInputs(tx);
-          loadHoldingRegisters(tx);
-          loadInputRegisters(tx);
-        });
-  }
-
-  private void loadCoils(Transaction tx) {
-    Path path = device.deviceContext.getDeviceFolderPath().resolve("coils.bin").toAbsolutePath();
-
-    try (var coilsFile = new RandomAccessFile(path.toFile(), "rw")) {
-      coilsFile.setLength(65535);
-      byte[] coils = new byte[65535];
-      coilsFile.readFully(coils);
-
-      tx.writeCoils(
-          coilMap -> {
-            for (int i = 0; i < coils.length; i++) {
-              if (coils[i] != 0) {
-                coilMap.put(i, true);
-              }
-            }
-          });
-    } catch (IOException e) {
-      logger.error("Error reading coils.bin", e);
-    }
-  }
-
-  private void loadDiscreteInputs(Transaction tx) {
-    Path path =
-        device.deviceContext.getDeviceFolderPath().resolve("discreteInputs.bin").toAbsolutePath();
-
-    try (var discreteInputsFile = new RandomAccessFile(path.toFile(), "rw")) {
-      discreteInputsFile.setLength(65535);
-      byte[] discreteInputs = new byte[65535];
-      discreteInputsFile.readFully(discreteInputs);
-
-      tx.writeDiscreteInputs(
-          discreteInputMap -> {
-            for (int i = 0; i < discreteInputs.length; i++) {
-              if (discreteInputs[i] != 0) {
-                discreteInputMap.put(i, true);
-              }
-            }
-          });
-    } catch (IOException e) {
-      logger.error("Error reading discreteInputs.bin", e);
-    }
-  }
-
-  private void loadHoldingRegisters(Transaction tx) {
-    Path path =
-        device.deviceContext.getDeviceFolderPath().resolve("holdingRegisters.bin").toAbsolutePath();
-
-    try (var holdingRegistersFile = new RandomAccessFile(path.toFile(), "rw")) {
-      holdingRegistersFile.setLength(65535 * 2);
-      byte[] holdingRegisters = new byte[65535 * 2];
-      holdingRegistersFile.readFully(holdingRegisters);
-
-      tx.writeHoldingRegisters(
-          holdingRegisterMap -> {
-            for (int i = 0; i < holdingRegisters.length; i += 2) {
-              byte high = holdingRegisters[i];
-              byte low = holdingRegisters[i + 1];
-              if (high != 0 || low != 0) {
-                holdingRegisterMap.put(i / 2, new byte[] {high, low});
-              }
-            }
-          });
-    } catch (IOException e) {
-      logger.error("Error reading holdingRegisters.bin", e);
-    }
-  }
-
-  private void loadInputRegisters(Transaction tx) {
-    Path path =
-        device.deviceContext.getDeviceFolderPath().resolve("inputRegisters.bin").toAbsolutePath();
-
-    try (var inputRegistersFile = new RandomAccessFile(path.toFile(), "rw")) {
-      inputRegistersFile.setLength(65535 * 2);
-      byte[] inputRegisters = new byte[65535 * 2];
-      inputRegistersFile.readFully(inputRegisters);
-
-      tx.writeInputRegisters(
-          inputRegisterMap -> {
-            for (int i = 0; i < inputRegisters.length; i += 2) {
-              byte high = inputRegisters[i];
-              byte low = inputRegisters[i + 1];
-              if (high != 0 || low != 0) {
-                inputRegisterMap.put(i / 2, new byte[] {high, low});
-              }
-            }
-          });
-    } catch (IOException e) {
-      logger.error("Error reading inputRegisters.bin", e);
-    }
-  }
-
-  private class ModificationListener implements ProcessImage.ModificationListener {
-
-    private final ExecutionQueue modificationQueue = new ExecutionQueue(OpcUa.SHARED_EXECUTOR);
-
-    @Override
-    public void onCoilsModified(List<CoilModification> modifications) {
-      modificationQueue.submit(
-          () -> {
-            logger.trace("onCoilsModified: {}", modifications);
-
-            Path path =
-                device.deviceContext.getDeviceFolderPath().resolve("coils.bin").toAbsolutePath();
-
-            try (var coilsFile = new RandomAccessFile(path.toFile(), "rw")) {
-              for (CoilModification m : modifications) {
-                coilsFile.seek(m.address());
-                coilsFile.write(m.value() ? 1 : 0);
-              }
-            } catch (IOException e) {
-              logger.error("Error writing coils.bin", e);
-            }
-          });
-    }
-
-    @Override
-    public void onDiscreteInputsModified(List<DiscreteInputModification> modifications) {
-      modificationQueue.submit(
-          () -> {
-            logger.trace("onDiscreteInputsModified: {}", modifications);
-
-            Path path =
-                device
-                    .deviceContext
-                    .getDeviceFolderPath()
-                    .resolve("discreteInputs.bin")
-                    .toAbsolutePath();
-
-            try (var discreteInputsFile = new RandomAccessFile(path.toFile(), "rw")) {
-              for (DiscreteInputModification m : modifications) {
-                discreteInputsFile.seek(m.address());
-                discreteInputsFile.write(m.value() ? 1 : 0);
-              }
-            } catch (IOException e) {
-              logger.error("Error writing discreteInputs.bin", e);
-            }
-          });
-    }
-
-    @Override
-    public void onHoldingRegistersModified(List<HoldingRegisterModification> modifications) {
-      modificationQueue.submit(
-          () -> {
-            logger.trace("onHoldingRegistersModified: {}", modifications);
-
-            Path path =
-                device
-                    .deviceContext
-                    .getDeviceFolderPath()
-                    .resolve("holdingRegisters.bin")
-                    .toAbsolutePath();
-
-            try (var holdingRegistersFile = new RandomAccessFile(path.toFile(), "rw")) {
-              for (HoldingRegisterModification m : modifications) {
-                holdingRegistersFile.seek(m.address() * 2L);
-                holdingRegistersFile.writeByte(m.value()[0]);
-                holdingRegistersFile.writeByte(m.value()[1]);
-              }
-            } catch (IOException e) {
-              logger.error("Error writing holdingRegisters.bin", e);
-            }
-          });
-    }
-
-    @Override
-    public void onInputRegistersModified(List<InputRegisterModification> modifications) {
-      modificationQueue.submit(
-          () -> {
-            logger.trace("onInputRegistersModified: {}", modifications);
-
-            Path path =
-                device
-                    .deviceContext
-                    .getDeviceFolderPath()
-                    .resolve("inputRegisters.bin")
-                    .toAbsolutePath();
-
-            try (var inputRegistersFile = new RandomAccessFile(path.toFile(), "rw")) {
-              for (InputRegisterModification m : modifications) {
-                inputRegistersFile.seek(m.address() * 2L);
-                inputRegistersFile.writeByte(m.value()[0]);
-                inputRegistersFile.writeByte(m.value()[1]);
-              }
-            } catch (IOException e) {
-              logger.error("Error writing inputRegisters.bin", e);
-            }
-          });
+    if (reportByExceptionModel != null) {
+      items = reportByExceptionModel.onMonitoringModeChanged(items);
     }
+    samplingModel.onMonitoringModeChanged(items);
   }
 
   // endregion
@@ -748,6 +442,12 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
     volatile DataValue value;
     final ReadValueId readValueId;
 
+    @Nullable ValueReadBatch batch;
+    int batchIndex;
+
+    /** The slice selected by the IndexRange, or {@code null} to read the whole value. */
+    @Nullable ArraySlice slice;
+
     private PendingRead(ReadValueId readValueId) {
       this.readValueId = readValueId;
     }
@@ -767,6 +467,15 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
 
     final ModbusAddress address;
 
+    ValueWriteBatch batch;
+    int batchIndex;
+
+    /** The slice selected by the IndexRange, or {@code null} to write the whole value. */
+    @Nullable ArraySlice slice;
+
+    /** The value to write to each run of {@link #slice}. */
+    Object @Nullable [] runValues;
+
     private PendingValueWrite(WriteValue writeValue, ModbusAddress address) {
       super(writeValue);
       this.address = address;
@@ -775,12 +484,6 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
 
   private class ModbusAddressFilter extends SimpleAddressSpaceFilter {
 
-    private final String deviceName;
-
-    private ModbusAddressFilter(String deviceName) {
-      this.deviceName = deviceName;
-    }
-
     @Override
     protected boolean filterNode(NodeId nodeId) {
       return checkAddress(nodeId);
@@ -792,17 +495,9 @@ public class ModbusAddressSpace implements AddressSpaceFragment, Lifecycle {
     }
 
     private boolean checkAddress(NodeId nodeId) {
-      String id = nodeId.getIdentifier().toString();
-      // remove the leading "[DeviceName]" prefix
-      id = id.substring(deviceName.length() + 2);
+      logger.trace("checking {}", nodeId);
 
-      logger.trace("checking {}", id);
-      try {
-        ModbusAddressParser.parse(id);
-        return true;
-      } catch (Exception e) {
-        return false;
-      }
+      return device.addressCache.get(nodeId).isPresent();
     }
   }
 }
@@ -1,45 +1,72 @@
 package com.kevinherron.ignition.modbus;
 
 import com.digitalpetri.modbus.server.ModbusTcpServer;
-import com.digitalpetri.modbus.server.ProcessImage;
-import com.digitalpetri.modbus.server.ReadWriteModbusServices;
 import com.digitalpetri.modbus.tcp.server.NettyServerTransportConfig;
 import com.digitalpetri.modbus.tcp.server.NettyTcpServerTransport;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.Device;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.DeviceContext;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.DeviceSettingsRecord;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.OpcUa;
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.image.FilePersistence;
+import com.kevinherron.ignition.modbus.image.MappedPersistence;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImageServices;
+import com.kevinherron.ignition.modbus.image.ProcessImagePersistence;
+import com.kevinherron.ignition.modbus.image.UnitProcessImages;
+import com.kevinherron.ignition.modbus.image.WalPersistence;
+import com.kevinherron.ignition.modbus.metrics.InstrumentedModbusServices;
+import com.kevinherron.ignition.modbus.metrics.LatencyHistogram;
+import com.kevinherron.ignition.modbus.metrics.ModbusServerMetrics;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceComposite;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ModbusServerDevice extends AddressSpaceComposite implements Device {
 
+  /** The unit ID addressed by a {@link ModbusAddress} without a unit ID prefix. */
+  static final int DEFAULT_UNIT_ID = 0;
+
   final Logger logger = LoggerFactory.getLogger(getClass());
 
   private ModbusTcpServer server;
   private volatile String status = "";
 
-  final ProcessImage processImage = new ProcessImage();
+  private volatile ModbusProcessImage processImage = new ModbusProcessImage();
+  private ProcessImagePersistence persistence;
+
+  /** Per unit ID process images, or {@code null} if all unit IDs share {@link #processImage}. */
+  private volatile UnitProcessImages unitProcessImages;
 
-  final ReadWriteModbusServices services =
-      new ReadWriteModbusServices() {
+  final ModbusProcessImageServices services =
+      new ModbusProcessImageServices() {
         @Override
-        protected Optional<ProcessImage> getProcessImage(int unitId) {
-          return Optional.of(processImage);
+        protected Optional<ModbusProcessImage> getProcessImage(int unitId) {
+          return Optional.of(ModbusServerDevice.this.getProcessImage(unitId));
         }
       };
 
+  /** Metrics for the requests served by {@link #services}. */
+  final ModbusServerMetrics metrics = new ModbusServerMetrics();
+
   private BrowsableAddressSpace browsableAddressSpace;
-  private ModbusAddressSpace modbusAddressSpace;
+  private volatile ModbusAddressSpace modbusAddressSpace;
 
   final DeviceContext deviceContext;
   final DeviceSettingsRecord deviceSettings;
   final ModbusServerDeviceSettings modbusServerSettings;
 
+  final ModbusAddressCache addressCache;
+
   public ModbusServerDevice(
       DeviceContext deviceContext,
       DeviceSettingsRecord deviceSettings,
@@ -50,6 +77,9 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
     this.deviceContext = deviceContext;
     this.deviceSettings = deviceSettings;
     this.modbusServerSettings = modbusServerSettings;
+
+    addressCache =
+        new ModbusAddressCache(deviceSettings.getName(), ModbusAddressCache.DEFAULT_CAPACITY);
   }
 
   @Override
@@ -59,7 +89,21 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
 
   @Override
   public @NotNull String getStatus() {
-    return status;
+    long requests = metrics.total().getRequests();
+
+    if (requests == 0) {
+      return status;
+    }
+
+    LatencyHistogram latency = metrics.total().getLatency();
+
+    return String.format(
+        "%s; %d requests, %d errors, p50 %.3f ms, p99 %.3f ms",
+        status,
+        requests,
+        metrics.total().getErrors(),
+        latency.getPercentile(50.0) / 1e6,
+        latency.getPercentile(99.0) / 1e6);
   }
 
   @Override
@@ -69,6 +113,28 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
 
   @Override
   public void startup() {
+    long startTime = System.nanoTime();
+
+    if (modbusServerSettings.getProcessImagePerUnitId()) {
+      unitProcessImages =
+          new UnitProcessImages(
+              modbusServerSettings.getPersistData()
+                  ? unitId ->
+                      createPersistence(
+                          deviceContext.getDeviceFolderPath().resolve("unit" + unitId))
+                  : null);
+    } else if (modbusServerSettings.getPersistData()) {
+      persistence = createPersistence(deviceContext.getDeviceFolderPath());
+
+      try {
+        processImage = persistence.open();
+      } catch (IOException e) {
+        logger.error("Error opening persisted process image", e);
+        persistence.close();
+        persistence = null;
+      }
+    }
+
     var transport =
         new NettyTcpServerTransport(
             NettyServerTransportConfig.create(
@@ -79,12 +145,16 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
                   cfg.eventLoopGroup = OpcUa.SHARED_EVENT_LOOP;
                 }));
 
-    server = ModbusTcpServer.create(transport, services);
+    server = ModbusTcpServer.create(transport, new InstrumentedModbusServices(services, metrics));
 
     try {
-      server.start();
+      metrics.register(getName());
+    } catch (JMException e) {
+      logger.warn("Error registering Modbus server metrics", e);
+    }
 
-      status = "Listening";
+    try {
+      server.start();
 
       logger.info(
           "Modbus server listening on {}:{}",
@@ -98,6 +168,11 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
       modbusAddressSpace.startup();
 
       onDataItemsCreated(deviceContext.getSubscriptionModel().getDataItems(getName()));
+
+      long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+      status = String.format("Listening (started in %d ms)", startupMillis);
+
+      logger.info("Device started in {} ms", startupMillis);
     } catch (ExecutionException e) {
       status = "Error";
       logger.error("Error starting Modbus server", e);
@@ -116,6 +191,13 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
     if (modbusAddressSpace != null) {
       modbusAddressSpace.shutdown();
     }
+    addressCache.clear();
+
+    try {
+      metrics.unregister();
+    } catch (JMException e) {
+      logger.warn("Error unregistering Modbus server metrics", e);
+    }
 
     if (server != null) {
       try {
@@ -127,5 +209,97 @@ public class ModbusServerDevice extends AddressSpaceComposite implements Device
         logger.error("Error stopping Modbus server", e);
       }
     }
+
+    if (persistence != null) {
+      persistence.close();
+    }
+    if (unitProcessImages != null) {
+      unitProcessImages.close();
+    }
+  }
+
+  /**
+   * Get the process image for {@code unitId}.
+   *
+   * <p>Unless the device is configured with a process image per unit ID, every unit ID shares the
+   * same process image.
+   *
+   * @param unitId the Modbus unit ID.
+   * @return the {@link ModbusProcessImage} for {@code unitId}.
+   */
+  ModbusProcessImage getProcessImage(int unitId) {
+    UnitProcessImages unitProcessImages = this.unitProcessImages;
+
+    if (unitProcessImages != null) {
+      return unitProcessImages.get(unitId);
+    } else {
+      return processImage;
+    }
+  }
+
+  /**
+   * Get the process image {@code address} refers to.
+   *
+   * @param address the {@link ModbusAddress}.
+   * @return the {@link ModbusProcessImage} for the unit ID of {@code address}, or for {@link
+   *     #DEFAULT_UNIT_ID} if it doesn't specify one.
+   */
+  ModbusProcessImage getProcessImage(ModbusAddress address) {
+    return getProcessImage(address.getUnitId().orElse(DEFAULT_UNIT_ID));
+  }
+
+  /**
+   * @return the number of process images created so far.
+   */
+  int getProcessImageCount() {
+    UnitProcessImages unitProcessImages = this.unitProcessImages;
+
+    return unitProcessImages != null ? unitProcessImages.size() : 1;
+  }
+
+  /**
+   * @return the {@link ProcessImagePersistence} of every persisted process image.
+   */
+  List<ProcessImagePersistence> getPersistences() {
+    UnitProcessImages unitProcessImages = this.unitProcessImages;
+    ProcessImagePersistence persistence = this.persistence;
+
+    if (unitProcessImages != null) {
+      return unitProcessImages.persistences();
+    } else if (persistence != null) {
+      return List.of(persistence);
+    } else {
+      return List.of();
+    }
+  }
+
+  /**
+   * @return the {@link ModbusAddressSpace}, or {@code null} if the device hasn't started.
+   */
+  @Nullable ModbusAddressSpace getModbusAddressSpace() {
+    return modbusAddressSpace;
+  }
+
+  private ProcessImagePersistence createPersistence(Path deviceFolderPath) {
+    return switch (modbusServerSettings.getPersistenceMode()) {
+      case FILE ->
+          new FilePersistence(
+              deviceFolderPath,
+              modbusServerSettings.getPersistFlushInterval(),
+              deviceContext.getServer().getScheduledExecutorService(),
+              OpcUa.SHARED_EXECUTOR);
+      case MEMORY_MAPPED ->
+          new MappedPersistence(
+              deviceFolderPath,
+              modbusServerSettings.getPersistSyncInterval(),
+              deviceContext.getServer().getScheduledExecutorService(),
+              OpcUa.SHARED_EXECUTOR);
+      case WRITE_AHEAD_LOG ->
+          new WalPersistence(
+              deviceFolderPath,
+              modbusServerSettings.getPersistCheckpointInterval(),
+              deviceContext.getServer().getScheduledExecutorService(),
+              OpcUa.SHARED_EXECUTOR);
+    };
   }
 }
@@ -1,6 +1,8 @@
 package com.kevinherron.ignition.modbus;
 
 import com.inductiveautomation.ignition.gateway.localdb.persistence.BooleanField;
+import com.inductiveautomation.ignition.gateway.localdb.persistence.DoubleField;
+import com.inductiveautomation.ignition.gateway.localdb.persistence.EnumField;
 import com.inductiveautomation.ignition.gateway.localdb.persistence.IntField;
 import com.inductiveautomation.ignition.gateway.localdb.persistence.LongField;
 import com.inductiveautomation.ignition.gateway.localdb.persistence.PersistentRecord;
@@ -8,7 +10,9 @@ import com.inductiveautomation.ignition.gateway.localdb.persistence.RecordMeta;
 import com.inductiveautomation.ignition.gateway.localdb.persistence.ReferenceField;
 import com.inductiveautomation.ignition.gateway.localdb.persistence.StringField;
 import com.inductiveautomation.ignition.gateway.opcua.server.api.DeviceSettingsRecord;
+import com.kevinherron.ignition.modbus.image.PersistenceMode;
 import java.io.Serial;
+import org.apache.wicket.validation.validator.RangeValidator;
 import simpleorm.dataset.SFieldFlags;
 
 public class ModbusServerDeviceSettings extends PersistentRecord {
@@ -29,9 +33,36 @@ public class ModbusServerDeviceSettings extends PersistentRecord {
 
   public static final IntField PORT = new IntField(META, "Port", SFieldFlags.SMANDATORY);
 
+  public static final BooleanField PROCESS_IMAGE_PER_UNIT_ID =
+      new BooleanField(META, "ProcessImagePerUnitId", SFieldFlags.SMANDATORY);
+
   public static final BooleanField PERSIST_DATA =
       new BooleanField(META, "PersistData", SFieldFlags.SMANDATORY);
 
+  public static final EnumField<PersistenceMode> PERSISTENCE_MODE =
+      new EnumField<>(META, "PersistenceMode", PersistenceMode.class, SFieldFlags.SMANDATORY);
+
+  public static final IntField PERSIST_SYNC_INTERVAL =
+      new IntField(META, "PersistSyncInterval", SFieldFlags.SMANDATORY);
+
+  public static final IntField PERSIST_FLUSH_INTERVAL =
+      new IntField(META, "PersistFlushInterval", SFieldFlags.SMANDATORY);
+
+  public static final IntField PERSIST_CHECKPOINT_INTERVAL =
+      new IntField(META, "PersistCheckpointInterval", SFieldFlags.SMANDATORY);
+
+  public static final BooleanField REPORT_BY_EXCEPTION =
+      new BooleanField(META, "ReportByException", SFieldFlags.SMANDATORY);
+
+  public static final IntField MIN_PUBLISH_INTERVAL =
+      new IntField(META, "MinPublishInterval", SFieldFlags.SMANDATORY);
+
+  public static final DoubleField DEADBAND =
+      new DoubleField(META, "Deadband", SFieldFlags.SMANDATORY);
+
+  public static final EnumField<DeadbandType> DEADBAND_TYPE =
+      new EnumField<>(META, "DeadbandType", DeadbandType.class, SFieldFlags.SMANDATORY);
+
   public static final StringField COIL_BROWSE_RANGES = new StringField(META, "CoilBrowseRanges");
 
   public static final StringField DISCRETE_INPUT_BROWSE_RANGES =
@@ -47,7 +78,21 @@ public class ModbusServerDeviceSettings extends PersistentRecord {
     DEVICE_SETTINGS.getFormMeta().setVisible(false);
     DEVICE_SETTINGS_ID.getFormMeta().setVisible(false);
 
+    PROCESS_IMAGE_PER_UNIT_ID.setDefault(false);
     PERSIST_DATA.setDefault(true);
+    PERSISTENCE_MODE.setDefault(PersistenceMode.FILE);
+    PERSIST_SYNC_INTERVAL.setDefault(1000);
+    PERSIST_FLUSH_INTERVAL.setDefault(100);
+    PERSIST_CHECKPOINT_INTERVAL.setDefault(60000);
+    PERSIST_SYNC_INTERVAL.getFormMeta().addValidator(RangeValidator.minimum(0));
+    PERSIST_FLUSH_INTERVAL.getFormMeta().addValidator(RangeValidator.minimum(0));
+    PERSIST_CHECKPOINT_INTERVAL.getFormMeta().addValidator(RangeValidator.minimum(1));
+    REPORT_BY_EXCEPTION.setDefault(true);
+    MIN_PUBLISH_INTERVAL.setDefault(0);
+    MIN_PUBLISH_INTERVAL.getFormMeta().addValidator(RangeValidator.minimum(0));
+    DEADBAND.setDefault(0.0);
+    DEADBAND.getFormMeta().addValidator(RangeValidator.minimum(0.0));
+    DEADBAND_TYPE.setDefault(DeadbandType.ABSOLUTE);
     COIL_BROWSE_RANGES.setDefault("0-10");
     DISCRETE_INPUT_BROWSE_RANGES.setDefault("0-10");
     HOLDING_REGISTER_BROWSE_RANGES.setDefault("0-10");
@@ -67,10 +112,78 @@ public class ModbusServerDeviceSettings extends PersistentRecord {
     return getInt(PORT);
   }
 
+  /**
+   * @return {@code true} if each unit ID has its own process image, created on first access;
+   *     {@code false} if all unit IDs share one process image.
+   */
+  public boolean getProcessImagePerUnitId() {
+    return getBoolean(PROCESS_IMAGE_PER_UNIT_ID);
+  }
+
   public boolean getPersistData() {
     return getBoolean(PERSIST_DATA);
   }
 
+  public PersistenceMode getPersistenceMode() {
+    return getEnum(PERSISTENCE_MODE);
+  }
+
+  /**
+   * @return how often, in milliseconds, modifications to a memory-mapped process image are forced
+   *     to storage; {@code 0} to force after every modification.
+   */
+  public int getPersistSyncInterval() {
+    return getInt(PERSIST_SYNC_INTERVAL);
+  }
+
+  /**
+   * @return how often, in milliseconds, modifications to a file-backed process image are written
+   *     to the files; {@code 0} to write after every modification.
+   */
+  public int getPersistFlushInterval() {
+    return getInt(PERSIST_FLUSH_INTERVAL);
+  }
+
+  /**
+   * @return how often, in milliseconds, a write-ahead logged process image is checkpointed to the
+   *     files and the log truncated; at least {@code 1}.
+   */
+  public int getPersistCheckpointInterval() {
+    return getInt(PERSIST_CHECKPOINT_INTERVAL);
+  }
+
+  /**
+   * @return {@code true} if subscribed values are delivered when they're modified rather than
+   *     sampled at each item's sampling interval.
+   */
+  public boolean getReportByException() {
+    return getBoolean(REPORT_BY_EXCEPTION);
+  }
+
+  /**
+   * @return the minimum time, in milliseconds, between values delivered by exception to each
+   *     subscribed item, whatever its sampling interval; {@code 0} to limit each item by its
+   *     sampling interval alone.
+   */
+  public int getMinPublishInterval() {
+    return getInt(MIN_PUBLISH_INTERVAL);
+  }
+
+  /**
+   * @return the deadband numeric values must move by before they're delivered to subscribed
+   *     items; {@code 0} to deliver every change.
+   */
+  public double getDeadband() {
+    return getDouble(DEADBAND);
+  }
+
+  /**
+   * @return how {@link #getDeadband()} is interpreted.
+   */
+  public DeadbandType getDeadbandType() {
+    return getEnum(DEADBAND_TYPE);
+  }
+
   public String getCoilBrowseRanges() {
     return getString(COIL_BROWSE_RANGES);
   }
@@ -0,0 +1,117 @@
+package com.kevinherron.ignition.modbus;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Indexes values by the range of bits or registers they occupy in one area, so the values
+ * overlapping a modified range can be found without scanning every value.
+ *
+ * <p>The 65536 offsets of an area are split into pages of {@value #PAGE_SIZE}, and each value is
+ * listed in every page its range overlaps. Finding the values that overlap a range only visits the
+ * pages the range covers, so it costs time proportional to the length of the range plus the
+ * number of values near it, however many values are indexed.
+ *
+ * <p>Lookups happen inside process image transactions and far outnumber updates, so pages are
+ * copied on write and read without locking.
+ *
+ * @param <T> the type of value indexed.
+ */
+final class OffsetIndex<T> {
+
+  private static final int PAGE_SHIFT = 6;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int OFFSETS = 65536;
+
+  private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+  private final AtomicReferenceArray<Entry<?>[]> pages =
+      new AtomicReferenceArray<>(OFFSETS >>> PAGE_SHIFT);
+
+  /**
+   * Add {@code value}, occupying {@code quantity} bits or registers starting at {@code offset}.
+   */
+  synchronized void add(int offset, int quantity, T value) {
+    var entry = new Entry<>(offset, Math.min(offset + quantity, OFFSETS), value);
+    if (entry.end() <= entry.offset()) {
+      return;
+    }
+
+    for (int p = firstPage(entry.offset()); p <= lastPage(entry.end()); p++) {
+      Entry<?>[] page = page(p);
+      Entry<?>[] copy = Arrays.copyOf(page, page.length + 1);
+      copy[page.length] = entry;
+      pages.set(p, copy);
+    }
+  }
+
+  /**
+   * Remove {@code value}, previously added with the same {@code offset} and {@code quantity}.
+   */
+  synchronized void remove(int offset, int quantity, T value) {
+    int end = Math.min(offset + quantity, OFFSETS);
+    if (end <= offset) {
+      return;
+    }
+
+    for (int p = firstPage(offset); p <= lastPage(end); p++) {
+      Entry<?>[] page = page(p);
+
+      for (int i = 0; i < page.length; i++) {
+        // the same value may be indexed more than once, under different ranges
+        Entry<?> entry = page[i];
+        if (entry.value() == value && entry.offset() == offset && entry.end() == end) {
+          Entry<?>[] copy = new Entry<?>[page.length - 1];
+          System.arraycopy(page, 0, copy, 0, i);
+          System.arraycopy(page, i + 1, copy, i, page.length - i - 1);
+          pages.set(p, copy.length == 0 ? null : copy);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Invoke {@code action} once for each value overlapping the {@code quantity} bits or registers
+   * starting at {@code offset}.
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(int offset, int quantity, Consumer<? super T> action) {
+    int end = Math.min(offset + quantity, OFFSETS);
+    if (end <= offset) {
+      return;
+    }
+
+    for (int p = firstPage(offset); p <= lastPage(end); p++) {
+      for (Entry<?> entry : page(p)) {
+        // a value spanning several visited pages is only reported from the first of them
+        if (entry.offset() < end
+            && entry.end() > offset
+            && firstPage(Math.max(entry.offset(), offset)) == p) {
+
+          action.accept((T) entry.value());
+        }
+      }
+    }
+  }
+
+  private Entry<?>[] page(int p) {
+    Entry<?>[] page = pages.get(p);
+    return page != null ? page : EMPTY;
+  }
+
+  private static int firstPage(int offset) {
+    return offset >>> PAGE_SHIFT;
+  }
+
+  /**
+   * @return the page holding the last offset before {@code end}.
+   */
+  private static int lastPage(int end) {
+    return (end - 1) >>> PAGE_SHIFT;
+  }
+
+  /** A value occupying offsets {@code offset} (inclusive) to {@code end} (exclusive). */
+  private record Entry<T>(int offset, int end, T value) {}
+}
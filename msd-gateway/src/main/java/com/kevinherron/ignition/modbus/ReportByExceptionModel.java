@@ -0,0 +1,408 @@
+package com.kevinherron.ignition.modbus;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Modification;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers values to {@link DataItem}s by exception, when the bits or registers they refer to are
+ * modified, instead of sampling them.
+ *
+ * <p>A {@link ModbusProcessImage.ModificationListener} on each process image with subscribed
+ * items finds the items overlapping each modification in an {@link OffsetIndex} per area, without
+ * scanning every item, and marks them dirty; their values are then read and delivered on an {@link
+ * ExecutionQueue}, outside the modifying transaction. An item modified several times before its
+ * value is read is delivered once, with the latest value. Items that are never modified cost
+ * nothing after their initial value is delivered.
+ *
+ * <p>Each process image holds at most one pending value per item, however fast its bits or
+ * registers are written, and at most one delivery per process image is queued at a time, so a
+ * bursty writer can neither grow a queue nor hold up deliveries from other process images. An item
+ * is also delivered no more often than its revised sampling interval or the minimum publish
+ * interval, whichever is longer; values written in between are coalesced into the latest, which is
+ * delivered once the interval elapses.
+ *
+ * <p>Only the Value attribute of a valid address, without an IndexRange, can be delivered by
+ * exception; other items are returned to the caller to be sampled.
+ */
+final class ReportByExceptionModel {
+
+  /** How long, in milliseconds, to wait before retrying a delivery whose read failed. */
+  static final long RETRY_DELAY = 1000;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<DataItem, Item> items = new ConcurrentHashMap<>();
+
+  private final Map<ModbusProcessImage, ImageItems> images = new ConcurrentHashMap<>();
+
+  /** Values superseded by a later modification before they were delivered. */
+  private final LongAdder coalesced = new LongAdder();
+
+  /** Values read and delivered. */
+  private final LongAdder delivered = new LongAdder();
+
+  private final ModbusServerDevice device;
+  private final Deadband deadband;
+  private final long minPublishInterval;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutionQueue deliveryQueue;
+
+  /**
+   * @param device the {@link ModbusServerDevice} whose process images are subscribed to.
+   * @param deadband the {@link Deadband} values are delivered through.
+   * @param minPublishInterval the minimum time, in milliseconds, between deliveries to each item,
+   *     whatever its sampling interval; {@code 0} to limit items by their sampling interval alone.
+   * @param scheduler the {@link ScheduledExecutorService} deferred deliveries are scheduled on.
+   * @param executor the {@link Executor} values are read and delivered on.
+   */
+  ReportByExceptionModel(
+      ModbusServerDevice device,
+      Deadband deadband,
+      long minPublishInterval,
+      ScheduledExecutorService scheduler,
+      Executor executor) {
+
+    this.device = device;
+    this.deadband = deadband;
+    this.minPublishInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(minPublishInterval, 0));
+    this.scheduler = scheduler;
+
+    deliveryQueue = new ExecutionQueue(executor);
+  }
+
+  /**
+   * @return the number of values superseded by a later modification before they were delivered.
+   */
+  long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * @return the number of values read and delivered.
+   */
+  long getDeliveredCount() {
+    return delivered.sum();
+  }
+
+  /** Stop listening for modifications to every process image. */
+  void shutdown() {
+    images.forEach(ModbusProcessImage::removeModificationListener);
+    images.clear();
+    items.clear();
+  }
+
+  /**
+   * Start delivering values to {@code created} by exception, beginning with their current
+   * values.
+   *
+   * @param created the newly created {@link DataItem}s.
+   * @return the items that can't be delivered by exception and must be sampled instead.
+   */
+  List<DataItem> onDataItemsCreated(List<DataItem> created) {
+    var sampled = new ArrayList<DataItem>();
+    var added = new HashMap<ImageItems, List<Item>>();
+
+    for (DataItem dataItem : created) {
+      ModbusAddress address = address(dataItem.getReadValueId());
+
+      if (address == null) {
+        sampled.add(dataItem);
+      } else {
+        ImageItems imageItems =
+            images.computeIfAbsent(device.getProcessImage(address), this::listen);
+
+        var item = new Item(dataItem, address, imageItems);
+        items.put(dataItem, item);
+        added.computeIfAbsent(imageItems, i -> new ArrayList<>()).add(item);
+      }
+    }
+
+    added.forEach(ImageItems::add);
+
+    return sampled;
+  }
+
+  /**
+   * @param modified the modified {@link DataItem}s.
+   * @return the items this model doesn't deliver to, which are sampled instead.
+   */
+  List<DataItem> onDataItemsModified(List<DataItem> modified) {
+    // a new sampling interval or filter doesn't change which modifications an item follows; the
+    // new interval limits deliveries from the next one on
+    return modified.stream().filter(item -> !items.containsKey(item)).toList();
+  }
+
+  /**
+   * Stop delivering values to {@code deleted}.
+   *
+   * @param deleted the deleted {@link DataItem}s.
+   * @return the items this model didn't deliver to, which were sampled instead.
+   */
+  List<DataItem> onDataItemsDeleted(List<DataItem> deleted) {
+    var sampled = new ArrayList<DataItem>();
+    var removed = new HashMap<ImageItems, List<Item>>();
+
+    for (DataItem dataItem : deleted) {
+      Item item = items.remove(dataItem);
+
+      if (item == null) {
+        sampled.add(dataItem);
+      } else {
+        deadband.reset(dataItem);
+        removed.computeIfAbsent(item.image(), i -> new ArrayList<>()).add(item);
+      }
+    }
+
+    removed.forEach(ImageItems::remove);
+
+    return sampled;
+  }
+
+  /**
+   * Deliver the current value to each of {@code changed} that's now sampling, since it may have
+   * been modified while it wasn't.
+   *
+   * @param changed the {@link MonitoredItem}s whose monitoring mode changed.
+   * @return the items this model doesn't deliver to, which are sampled instead.
+   */
+  List<MonitoredItem> onMonitoringModeChanged(List<MonitoredItem> changed) {
+    var sampled = new ArrayList<MonitoredItem>();
+
+    for (MonitoredItem monitoredItem : changed) {
+      Item item = monitoredItem instanceof DataItem d ? items.get(d) : null;
+
+      if (item == null) {
+        sampled.add(monitoredItem);
+      } else if (monitoredItem.isSamplingEnabled()) {
+        deadband.reset(item.dataItem());
+        item.image().dirty(item);
+      }
+    }
+
+    return sampled;
+  }
+
+  /**
+   * @return the {@link ModbusAddress} to deliver by exception for {@code readValueId}, or {@code
+   *     null} if it must be sampled.
+   */
+  private @Nullable ModbusAddress address(ReadValueId readValueId) {
+    String indexRange = readValueId.getIndexRange();
+
+    if (AttributeId.from(readValueId.getAttributeId()).orElse(null) != AttributeId.Value
+        || (indexRange != null && !indexRange.isEmpty())) {
+      return null;
+    }
+
+    return device.addressCache.get(readValueId.getNodeId()).orElse(null);
+  }
+
+  private ImageItems listen(ModbusProcessImage processImage) {
+    var imageItems = new ImageItems(processImage);
+    processImage.addModificationListener(imageItems);
+    return imageItems;
+  }
+
+  /** A {@link DataItem} delivered to by exception. */
+  private final class Item {
+
+    final DataItem dataItem;
+    final ModbusAddress address;
+    final ImageItems image;
+
+    /** When this item was last delivered to, from {@link System#nanoTime()}. */
+    volatile long lastDelivered;
+
+    Item(DataItem dataItem, ModbusAddress address, ImageItems image) {
+      this.dataItem = dataItem;
+      this.address = address;
+      this.image = image;
+
+      // so the initial value is delivered right away
+      lastDelivered = System.nanoTime() - publishInterval();
+    }
+
+    DataItem dataItem() {
+      return dataItem;
+    }
+
+    ModbusAddress address() {
+      return address;
+    }
+
+    ImageItems image() {
+      return image;
+    }
+
+    /**
+     * @return the number of bits or registers this item's value occupies.
+     */
+    int quantity() {
+      return ValueReadBatch.quantity(address);
+    }
+
+    /**
+     * @return the minimum time, in nanoseconds, between deliveries to this item: its revised
+     *     sampling interval or the minimum publish interval, whichever is longer.
+     */
+    long publishInterval() {
+      long samplingInterval = Math.round(Math.max(dataItem.getSamplingInterval(), 0.0));
+
+      return Math.max(TimeUnit.MILLISECONDS.toNanos(samplingInterval), minPublishInterval);
+    }
+  }
+
+  /** The items delivered to from one process image, and its modification listener. */
+  private final class ImageItems implements ModbusProcessImage.ModificationListener {
+
+    private final Map<ModbusArea, OffsetIndex<Item>> index = new EnumMap<>(ModbusArea.class);
+
+    private final Set<Item> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean deliveryPending = new AtomicBoolean(false);
+
+    private final ModbusProcessImage processImage;
+
+    ImageItems(ModbusProcessImage processImage) {
+      this.processImage = processImage;
+
+      for (ModbusArea area : ModbusArea.values()) {
+        index.put(area, new OffsetIndex<>());
+      }
+    }
+
+    @Override
+    public void onModifications(Transaction tx, List<Modification> modifications) {
+      for (Modification m : modifications) {
+        index.get(m.area()).forEach(m.offset(), m.quantity(), this::dirty);
+      }
+    }
+
+    void add(List<Item> added) {
+      for (Item item : added) {
+        ModbusAddress address = item.address();
+        index.get(address.getArea()).add(address.getOffset(), item.quantity(), item);
+        dirty(item);
+      }
+    }
+
+    void remove(List<Item> removed) {
+      for (Item item : removed) {
+        ModbusAddress address = item.address();
+        index.get(address.getArea()).remove(address.getOffset(), item.quantity(), item);
+        dirty.remove(item);
+      }
+    }
+
+    /** Mark {@code item} dirty, scheduling a delivery if one isn't already pending. */
+    void dirty(Item item) {
+      if (!dirty.add(item)) {
+        // the value it was marked dirty for hasn't been delivered yet, and now never will be
+        coalesced.increment();
+      }
+
+      if (deliveryPending.compareAndSet(false, true)) {
+        deliveryQueue.submit(this::deliver);
+      }
+    }
+
+    /**
+     * Read the value of every dirty item whose {@link Item#publishInterval()} has elapsed and
+     * deliver it, deferring the rest until the earliest of their intervals elapses.
+     */
+    private void deliver() {
+      // cleared first, so an item marked dirty from here on schedules another delivery
+      deliveryPending.set(false);
+
+      long now = System.nanoTime();
+      long deferral = Long.MAX_VALUE;
+
+      var delivering = new ArrayList<Item>();
+      for (Iterator<Item> it = dirty.iterator(); it.hasNext(); ) {
+        Item item = it.next();
+        long remaining = item.publishInterval() - (now - item.lastDelivered);
+
+        if (remaining > 0) {
+          deferral = Math.min(deferral, remaining);
+        } else {
+          delivering.add(item);
+          it.remove();
+        }
+      }
+
+      if (deferral != Long.MAX_VALUE && deliveryPending.compareAndSet(false, true)) {
+        scheduler.schedule(
+            () -> deliveryQueue.submit(this::deliver), deferral, TimeUnit.NANOSECONDS);
+      }
+
+      if (delivering.isEmpty()) {
+        return;
+      }
+
+      var batch = new ValueReadBatch(processImage);
+      for (Item item : delivering) {
+        batch.add(item.address());
+      }
+
+      try {
+        batch.read();
+      } catch (RuntimeException e) {
+        logger.error("Error reading values to deliver; retrying in {} ms", RETRY_DELAY, e);
+        retry(delivering);
+        return;
+      }
+
+      for (int i = 0; i < delivering.size(); i++) {
+        Item item = delivering.get(i);
+        DataItem dataItem = item.dataItem();
+
+        // skip items deleted since they were marked dirty
+        if (items.get(dataItem) == item && dataItem.isSamplingEnabled()) {
+          item.lastDelivered = now;
+          deadband.deliver(dataItem, batch.get(i));
+          delivered.increment();
+        }
+      }
+    }
+
+    /**
+     * Mark {@code undelivered} dirty again, except for items deleted meanwhile, and schedule a
+     * delivery after {@link #RETRY_DELAY} unless one is already pending.
+     */
+    private void retry(List<Item> undelivered) {
+      for (Item item : undelivered) {
+        if (items.get(item.dataItem()) == item) {
+          dirty.add(item);
+        }
+      }
+
+      if (deliveryPending.compareAndSet(false, true)) {
+        scheduler.schedule(
+            () -> deliveryQueue.submit(this::deliver), RETRY_DELAY, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package com.kevinherron.ignition.modbus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.eclipse.milo.opcua.sdk.server.Lifecycle;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples {@link DataItem}s that aren't delivered by exception.
+ *
+ * <p>Items are grouped into buckets by sampling interval, and each bucket is sampled by a single
+ * scheduled task that reads every item in it with one call to the reader. The reader batches the
+ * reads per process image, so each tick copies each area's span once and fans the decoded values
+ * out to the items, instead of each item being read on its own schedule.
+ *
+ * <p>A tick that's still running when the next is due is not overlapped; the next tick is skipped.
+ */
+final class SamplingModel implements Lifecycle {
+
+  /** Items are sampled no more often than this, in milliseconds. */
+  static final long MIN_SAMPLING_INTERVAL = 10;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  /** The sampling interval each item is bucketed under; guarded by {@code this}. */
+  private final Map<DataItem, Long> intervals = new HashMap<>();
+
+  /** The buckets, by sampling interval; guarded by {@code this}. */
+  private final Map<Long, Bucket> buckets = new HashMap<>();
+
+  private boolean running = false;
+
+  private final Function<List<ReadValueId>, List<DataValue>> reader;
+  private final Deadband deadband;
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+
+  /**
+   * @param reader reads a list of {@link ReadValueId}s, returning a value for each.
+   * @param deadband the {@link Deadband} values are delivered through.
+   * @param scheduler the {@link ScheduledExecutorService} buckets are scheduled on.
+   * @param executor the {@link Executor} items are sampled on.
+   */
+  SamplingModel(
+      Function<List<ReadValueId>, List<DataValue>> reader,
+      Deadband deadband,
+      ScheduledExecutorService scheduler,
+      Executor executor) {
+
+    this.reader = reader;
+    this.deadband = deadband;
+    this.scheduler = scheduler;
+    this.executor = executor;
+  }
+
+  @Override
+  public synchronized void startup() {
+    running = true;
+
+    buckets.values().forEach(Bucket::schedule);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    running = false;
+
+    buckets.values().forEach(Bucket::cancel);
+    buckets.clear();
+    intervals.clear();
+  }
+
+  synchronized void onDataItemsCreated(List<DataItem> items) {
+    add(items);
+
+    // sample new items now rather than at their bucket's next tick
+    if (running && !items.isEmpty()) {
+      executor.execute(() -> sample(items));
+    }
+  }
+
+  synchronized void onDataItemsModified(List<DataItem> items) {
+    var moved = new ArrayList<DataItem>();
+
+    for (DataItem item : items) {
+      Long interval = intervals.get(item);
+
+      if (interval != null && interval != interval(item)) {
+        moved.add(item);
+      }
+    }
+
+    remove(moved);
+    add(moved);
+  }
+
+  synchronized void onDataItemsDeleted(List<DataItem> items) {
+    remove(items);
+
+    items.forEach(deadband::reset);
+  }
+
+  void onMonitoringModeChanged(List<MonitoredItem> items) {
+    // sample items that are now sampling, which may have changed while they weren't
+    var sampling = new ArrayList<DataItem>();
+
+    for (MonitoredItem item : items) {
+      if (item instanceof DataItem dataItem && item.isSamplingEnabled()) {
+        deadband.reset(dataItem);
+        sampling.add(dataItem);
+      }
+    }
+
+    if (!sampling.isEmpty()) {
+      executor.execute(() -> sample(sampling));
+    }
+  }
+
+  private void add(List<DataItem> items) {
+    var added = new HashMap<Long, List<DataItem>>();
+
+    for (DataItem item : items) {
+      long interval = interval(item);
+
+      intervals.put(item, interval);
+      added.computeIfAbsent(interval, i -> new ArrayList<>()).add(item);
+    }
+
+    added.forEach(
+        (interval, bucketItems) -> {
+          Bucket bucket =
+              buckets.computeIfAbsent(
+                  interval,
+                  i -> {
+                    var b = new Bucket(i);
+                    if (running) {
+                      b.schedule();
+                    }
+                    return b;
+                  });
+
+          bucket.items.addAll(bucketItems);
+        });
+  }
+
+  private void remove(List<DataItem> items) {
+    var removed = new HashMap<Long, HashSet<DataItem>>();
+
+    for (DataItem item : items) {
+      Long interval = intervals.remove(item);
+
+      if (interval != null) {
+        removed.computeIfAbsent(interval, i -> new HashSet<>()).add(item);
+      }
+    }
+
+    removed.forEach(
+        (interval, bucketItems) -> {
+          Bucket bucket = buckets.get(interval);
+          bucket.items.removeAll(bucketItems);
+
+          if (bucket.items.isEmpty()) {
+            bucket.cancel();
+            buckets.remove(interval);
+          }
+        });
+  }
+
+  /** Read every item in {@code items} that's sampling, and deliver the values. */
+  private void sample(List<DataItem> items) {
+    var sampling = new ArrayList<DataItem>(items.size());
+    var readValueIds = new ArrayList<ReadValueId>(items.size());
+
+    for (DataItem item : items) {
+      if (item.isSamplingEnabled()) {
+        sampling.add(item);
+        readValueIds.add(item.getReadValueId());
+      }
+    }
+
+    if (sampling.isEmpty()) {
+      return;
+    }
+
+    try {
+      List<DataValue> values = reader.apply(readValueIds);
+
+      for (int i = 0; i < sampling.size(); i++) {
+        deadband.deliver(sampling.get(i), values.get(i));
+      }
+    } catch (RuntimeException e) {
+      logger.error("Error sampling {} items", sampling.size(), e);
+    }
+  }
+
+  /**
+   * @return the sampling interval, in milliseconds, {@code item} is bucketed under.
+   */
+  private static long interval(DataItem item) {
+    return Math.max(Math.round(item.getSamplingInterval()), MIN_SAMPLING_INTERVAL);
+  }
+
+  /** The items sampled at one interval, and the task that samples them. */
+  private final class Bucket implements Runnable {
+
+    final List<DataItem> items = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean sampling = new AtomicBoolean(false);
+    private ScheduledFuture<?> future;
+
+    private final long interval;
+
+    Bucket(long interval) {
+      this.interval = interval;
+    }
+
+    void schedule() {
+      future = scheduler.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void cancel() {
+      if (future != null) {
+        future.cancel(false);
+        future = null;
+      }
+    }
+
+    @Override
+    public void run() {
+      if (sampling.compareAndSet(false, true)) {
+        executor.execute(
+            () -> {
+              try {
+                sample(items);
+              } finally {
+                sampling.set(false);
+              }
+            });
+      } else {
+        logger.debug("Skipping tick of {} ms bucket: previous tick still sampling", interval);
+      }
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package com.kevinherron.ignition.modbus;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.address.ModbusCodec;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the values of many addresses in one {@link ModbusProcessImage} at once.
+ *
+ * <p>The addresses are grouped by area and sorted by offset, and the ranges they cover are copied
+ * out of the process image in a single transaction, one bulk copy per contiguous range, so the
+ * values are a consistent snapshot of every area involved. Values are decoded from the copies
+ * after the transaction completes.
+ */
+final class ValueReadBatch {
+
+  /**
+   * Ranges separated by a gap of at most this many bits or registers are copied as one range;
+   * copying a few unused registers is cheaper than another bulk copy.
+   */
+  private static final int MAX_GAP = 16;
+
+  /**
+   * Scratch buffers ranges are copied into, one per area, reused by each thread. Values are
+   * decoded from them before {@link #read()} returns, so nothing refers to them afterwards.
+   */
+  private static final ThreadLocal<byte[][]> SCRATCH =
+      ThreadLocal.withInitial(() -> new byte[ModbusArea.values().length][]);
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final List<ModbusAddress> addresses = new ArrayList<>();
+  private DataValue[] values = new DataValue[0];
+
+  private final ModbusProcessImage processImage;
+
+  ValueReadBatch(ModbusProcessImage processImage) {
+    this.processImage = processImage;
+  }
+
+  /**
+   * Add {@code address} to the batch.
+   *
+   * @param address the {@link ModbusAddress} to read.
+   * @return the index to get its value with after the batch has been read.
+   */
+  int add(ModbusAddress address) {
+    addresses.add(address);
+    return addresses.size() - 1;
+  }
+
+  /**
+   * @param index an index returned by {@link #add(ModbusAddress)}.
+   * @return the value read at {@code index}; only valid after {@link #read()}.
+   */
+  DataValue get(int index) {
+    return values[index];
+  }
+
+  /**
+   * @return the number of addresses added to the batch, which is the index the next one will get.
+   */
+  int size() {
+    return addresses.size();
+  }
+
+  /** Read the value of every address added to the batch. */
+  void read() {
+    values = new DataValue[addresses.size()];
+
+    if (addresses.size() == 1) {
+      values[0] = read(addresses.get(0));
+      return;
+    }
+
+    Map<ModbusArea, List<Item>> items = new EnumMap<>(ModbusArea.class);
+
+    for (int i = 0; i < addresses.size(); i++) {
+      ModbusAddress address = addresses.get(i);
+      int quantity = quantity(address);
+
+      if (address.getOffset() < 0 || address.getOffset() + quantity > 65536) {
+        values[i] = new DataValue(StatusCodes.Bad_OutOfRange);
+      } else {
+        items
+            .computeIfAbsent(address.getArea(), a -> new ArrayList<>())
+            .add(new Item(i, address.getOffset(), quantity));
+      }
+    }
+
+    if (items.isEmpty()) {
+      return;
+    }
+
+    // position of each item's value in its area's buffer; a bit index for bit areas, a byte
+    // index for register areas.
+    var positions = new int[addresses.size()];
+
+    Map<ModbusArea, List<Range>> ranges = new EnumMap<>(ModbusArea.class);
+    Map<ModbusArea, byte[]> buffers = new EnumMap<>(ModbusArea.class);
+
+    items.forEach(
+        (area, areaItems) -> {
+          areaItems.sort(Comparator.comparingInt(Item::offset));
+
+          boolean bits = isBitArea(area);
+          var areaRanges = new ArrayList<Range>();
+
+          int start = areaItems.get(0).offset();
+          int end = start;
+          int position = 0;
+
+          for (Item item : areaItems) {
+            if (item.offset() > end + MAX_GAP) {
+              areaRanges.add(new Range(start, end - start, position));
+              position += size(bits, end - start);
+              start = item.offset();
+              end = start;
+            }
+            end = Math.max(end, item.offset() + item.quantity());
+
+            int delta = item.offset() - start;
+            positions[item.index()] = bits ? position * 8 + delta : position + delta * 2;
+          }
+          areaRanges.add(new Range(start, end - start, position));
+
+          ranges.put(area, areaRanges);
+          buffers.put(area, scratch(area, position + size(bits, end - start)));
+        });
+
+    processImage.getOptimistic(
+        EnumSet.copyOf(items.keySet()),
+        tx -> {
+          ranges.forEach(
+              (area, areaRanges) -> {
+                byte[] buffer = buffers.get(area);
+
+                for (Range r : areaRanges) {
+                  if (isBitArea(area)) {
+                    tx.readBits(area, r.offset(), r.quantity(), buffer, r.position());
+                  } else {
+                    tx.readRegisters(area, r.offset(), r.quantity(), buffer, r.position());
+                  }
+                }
+              });
+          return null;
+        });
+
+    items.forEach(
+        (area, areaItems) -> {
+          byte[] buffer = buffers.get(area);
+
+          for (Item item : areaItems) {
+            int i = item.index();
+            int p = positions[i];
+
+            if (isBitArea(area)) {
+              values[i] = decodeBits(addresses.get(i), buffer, p);
+            } else {
+              values[i] = decode(addresses.get(i), buffer, p);
+            }
+          }
+        });
+  }
+
+  /** Read a single address, without the bookkeeping needed to batch many. */
+  private DataValue read(ModbusAddress address) {
+    ModbusArea area = address.getArea();
+    int offset = address.getOffset();
+    int quantity = quantity(address);
+
+    if (offset < 0 || offset + quantity > 65536) {
+      return new DataValue(StatusCodes.Bad_OutOfRange);
+    }
+
+    if (isBitArea(area) && quantity == 1) {
+      boolean value = processImage.getOptimistic(area, tx -> tx.readBit(area, offset));
+
+      return new DataValue(ModbusCodec.variant(value));
+    } else if (isBitArea(area)) {
+      byte[] buffer = scratch(area, size(true, quantity));
+
+      processImage.getOptimistic(
+          area,
+          tx -> {
+            tx.readBits(area, offset, quantity, buffer, 0);
+            return null;
+          });
+
+      return decodeBits(address, buffer, 0);
+    } else {
+      byte[] buffer = scratch(area, quantity * 2);
+
+      processImage.getOptimistic(
+          area,
+          tx -> {
+            tx.readRegisters(area, offset, quantity, buffer, 0);
+            return null;
+          });
+
+      return decode(address, buffer, 0);
+    }
+  }
+
+  /**
+   * Decode the bit, or array of bits, at bit {@code position} in {@code buffer}.
+   */
+  private static DataValue decodeBits(ModbusAddress address, byte[] buffer, int position) {
+    if (address.getCodec() instanceof ModbusCodec.ArrayCodec codec) {
+      var elements = new Boolean[codec.getLength()];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = bit(buffer, position + i);
+      }
+      return new DataValue(new Variant(codec.toValue(elements)));
+    } else {
+      return new DataValue(ModbusCodec.variant(bit(buffer, position)));
+    }
+  }
+
+  private static boolean bit(byte[] buffer, int position) {
+    return ((buffer[position >>> 3] >> (position & 7)) & 1) != 0;
+  }
+
+  private DataValue decode(ModbusAddress address, byte[] buffer, int index) {
+    try {
+      return new DataValue(address.getCodec().decodeVariant(buffer, index));
+    } catch (UaException e) {
+      return new DataValue(e.getStatusCode());
+    } catch (Exception e) {
+      logger.error("Error reading value: address={}", address, e);
+      return new DataValue(StatusCodes.Bad_ConfigurationError);
+    }
+  }
+
+  /**
+   * @return this thread's scratch buffer for {@code area}, at least {@code size} bytes long.
+   */
+  private static byte[] scratch(ModbusArea area, int size) {
+    byte[][] buffers = SCRATCH.get();
+
+    byte[] buffer = buffers[area.ordinal()];
+    if (buffer == null || buffer.length < size) {
+      buffer = new byte[Math.max(size, 64)];
+      buffers[area.ordinal()] = buffer;
+    }
+    return buffer;
+  }
+
+  private static boolean isBitArea(ModbusArea area) {
+    return area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS;
+  }
+
+  /**
+   * @return the number of bits or registers read for {@code address}.
+   */
+  static int quantity(ModbusAddress address) {
+    if (isBitArea(address.getArea())) {
+      return address instanceof ModbusAddress.ArrayAddress a ? a.getLength() : 1;
+    } else {
+      return address.getCodec().getRegisterCount();
+    }
+  }
+
+  /**
+   * @return the number of bytes needed to hold {@code quantity} bits or registers.
+   */
+  private static int size(boolean bits, int quantity) {
+    return bits ? (quantity + 7) / 8 : quantity * 2;
+  }
+
+  /** The bits or registers read for the address at {@code index}. */
+  private record Item(int index, int offset, int quantity) {}
+
+  /** A contiguous range copied into a buffer at byte {@code position}. */
+  private record Range(int offset, int quantity, int position) {}
+}
@@ -0,0 +1,217 @@
+package com.kevinherron.ignition.modbus;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.address.ModbusCodec;
+import com.kevinherron.ignition.modbus.address.ModbusDataType;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes the values of many addresses in one {@link ModbusProcessImage} at once.
+ *
+ * <p>Values are checked and encoded before anything is written, then every write is applied in a
+ * single transaction over all the areas involved. Modbus clients never observe part of the batch,
+ * and {@link ModbusProcessImage.ModificationListener}s, including persistence, are notified once,
+ * with the modifications coalesced.
+ */
+final class ValueWriteBatch {
+
+  private final List<Write> writes = new ArrayList<>();
+
+  private final ModbusProcessImage processImage;
+
+  ValueWriteBatch(ModbusProcessImage processImage) {
+    this.processImage = processImage;
+  }
+
+  /**
+   * Add a write of {@code variant} to {@code address} to the batch.
+   *
+   * @param address the {@link ModbusAddress} to write.
+   * @param variant the value to write.
+   * @return the index to get the result with after the batch has been written.
+   */
+  int add(ModbusAddress address, Variant variant) {
+    writes.add(new Write(address, variant));
+    return writes.size() - 1;
+  }
+
+  /**
+   * @param index an index returned by {@link #add(ModbusAddress, Variant)}.
+   * @return the result of the write at {@code index}; only valid after {@link #write()}.
+   */
+  StatusCode get(int index) {
+    return writes.get(index).statusCode;
+  }
+
+  /**
+   * @return the number of writes added to the batch, which is the index the next one will get.
+   */
+  int size() {
+    return writes.size();
+  }
+
+  /** Apply every write added to the batch. */
+  void write() {
+    var encoded = new ArrayList<Write>(writes.size());
+    Set<ModbusArea> areas = EnumSet.noneOf(ModbusArea.class);
+
+    for (Write write : writes) {
+      try {
+        write.encode();
+        encoded.add(write);
+        areas.add(write.address.getArea());
+      } catch (UaException e) {
+        write.statusCode = e.getStatusCode();
+      } catch (RuntimeException e) {
+        write.statusCode = new StatusCode(StatusCodes.Bad_InternalError);
+      }
+    }
+
+    if (encoded.isEmpty()) {
+      return;
+    }
+
+    // Applying the writes in address order lets adjacent modifications coalesce, but writes
+    // that overlap must be applied in the order they were requested.
+    var sorted = new ArrayList<>(encoded);
+    sorted.sort(
+        Comparator.<Write, ModbusArea>comparing(w -> w.address.getArea())
+            .thenComparingInt(w -> w.address.getOffset()));
+
+    List<Write> apply = overlaps(sorted) ? encoded : sorted;
+
+    processImage.with(
+        areas,
+        tx -> {
+          for (Write write : apply) {
+            try {
+              write.apply(tx);
+              write.statusCode = StatusCode.GOOD;
+            } catch (UaException e) {
+              write.statusCode = e.getStatusCode();
+            } catch (RuntimeException e) {
+              write.statusCode = new StatusCode(StatusCodes.Bad_InternalError);
+            }
+          }
+        });
+  }
+
+  private static boolean overlaps(List<Write> sorted) {
+    for (int i = 1; i < sorted.size(); i++) {
+      Write previous = sorted.get(i - 1);
+      Write write = sorted.get(i);
+
+      if (previous.address.getArea() == write.address.getArea()
+          && write.address.getOffset() < previous.address.getOffset() + previous.quantity()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Write {
+
+    final ModbusAddress address;
+    final Variant variant;
+
+    StatusCode statusCode = new StatusCode(StatusCodes.Bad_InternalError);
+
+    /**
+     * The register bytes to write, or {@code null} for bit areas. For a bit within registers the
+     * rest of the bytes are filled in inside the transaction.
+     */
+    byte @Nullable [] registers;
+
+    /** The bits of an array to write, packed LSB-first, or {@code null} for a single bit. */
+    byte @Nullable [] bits;
+
+    Write(ModbusAddress address, Variant variant) {
+      this.address = address;
+      this.variant = variant;
+    }
+
+    int quantity() {
+      return switch (address.getArea()) {
+        case COILS, DISCRETE_INPUTS ->
+            address instanceof ModbusAddress.ArrayAddress a ? a.getLength() : 1;
+        case HOLDING_REGISTERS, INPUT_REGISTERS -> address.getCodec().getRegisterCount();
+      };
+    }
+
+    /** Check the value and encode it, before the transaction. */
+    void encode() throws UaException {
+      if (address.getOffset() < 0 || address.getOffset() + quantity() > 65536) {
+        throw new UaException(StatusCodes.Bad_OutOfRange);
+      }
+
+      Object value = variant.getValue();
+      ModbusCodec codec = address.getCodec();
+
+      switch (address.getArea()) {
+        case COILS, DISCRETE_INPUTS -> {
+          if (codec instanceof ModbusCodec.ArrayCodec arrayCodec) {
+            Object[] elements = arrayCodec.toElements(value);
+            bits = new byte[(elements.length + 7) / 8];
+            for (int i = 0; i < elements.length; i++) {
+              if ((Boolean) elements[i]) {
+                bits[i >>> 3] |= (byte) (1 << (i & 7));
+              }
+            }
+          } else if (!(value instanceof Boolean)) {
+            throw new UaException(StatusCodes.Bad_TypeMismatch);
+          }
+        }
+        case HOLDING_REGISTERS, INPUT_REGISTERS -> {
+          if (address.getDataType() instanceof ModbusDataType.Bit) {
+            if (!codec.getValueType().isInstance(value)) {
+              throw new UaException(StatusCodes.Bad_TypeMismatch);
+            }
+            registers = new byte[codec.getRegisterCount() * 2];
+          } else {
+            registers = codec.encode(value);
+          }
+        }
+      }
+    }
+
+    /** Apply the encoded value inside the transaction. */
+    void apply(Transaction tx) throws UaException {
+      ModbusArea area = address.getArea();
+
+      switch (area) {
+        case COILS, DISCRETE_INPUTS -> {
+          if (bits != null) {
+            tx.writeBits(area, address.getOffset(), quantity(), bits);
+          } else {
+            tx.writeBit(area, address.getOffset(), (Boolean) variant.getValue());
+          }
+        }
+        case HOLDING_REGISTERS, INPUT_REGISTERS -> {
+          byte[] registers = Objects.requireNonNull(this.registers);
+          int quantity = registers.length / 2;
+
+          if (address.getDataType() instanceof ModbusDataType.Bit) {
+            // read-modify-write the underlying value
+            tx.readRegisters(area, address.getOffset(), quantity, registers, 0);
+            address.getCodec().encode(variant.getValue(), registers, 0);
+          }
+
+          tx.writeRegisters(area, address.getOffset(), quantity, registers);
+        }
+      }
+    }
+  }
+}
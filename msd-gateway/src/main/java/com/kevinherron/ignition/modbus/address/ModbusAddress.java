@@ -11,19 +11,22 @@ public abstract sealed class ModbusAddress {
   private final int offset;
   private final ModbusDataType dataType;
   private final Set<DataTypeModifier> dataTypeModifiers;
+  private final ModbusCodec codec;
 
   protected ModbusAddress(
       @Nullable Integer unitId,
       ModbusArea area,
       int offset,
       ModbusDataType dataType,
-      Set<DataTypeModifier> dataTypeModifiers) {
+      Set<DataTypeModifier> dataTypeModifiers,
+      ModbusCodec codec) {
 
     this.unitId = unitId;
     this.area = area;
     this.offset = offset;
     this.dataType = dataType;
     this.dataTypeModifiers = Set.copyOf(dataTypeModifiers);
+    this.codec = codec;
   }
 
   public Optional<Integer> getUnitId() {
@@ -46,6 +49,14 @@ public abstract sealed class ModbusAddress {
     return dataTypeModifiers;
   }
 
+  /**
+   * @return the {@link ModbusCodec} for this address's data type and modifiers, and dimensions if
+   *     it's an array.
+   */
+  public ModbusCodec getCodec() {
+    return codec;
+  }
+
   public static final class ArrayAddress extends ModbusAddress {
 
     private final int[] dimensions;
@@ -58,13 +69,30 @@ public abstract sealed class ModbusAddress {
         Set<DataTypeModifier> dataTypeModifiers,
         int[] dimensions) {
 
-      super(unitId, area, address, dataType, dataTypeModifiers);
+      super(
+          unitId,
+          area,
+          address,
+          dataType,
+          dataTypeModifiers,
+          ModbusCodec.array(ModbusCodec.of(dataType, dataTypeModifiers), dimensions));
 
-      this.dimensions = dimensions;
+      this.dimensions = dimensions.clone();
     }
 
     public int[] getDimensions() {
-      return dimensions;
+      return dimensions.clone();
+    }
+
+    /**
+     * @return the total number of elements in the array.
+     */
+    public int getLength() {
+      int length = 1;
+      for (int dimension : dimensions) {
+        length *= dimension;
+      }
+      return length;
     }
   }
 
@@ -77,7 +105,13 @@ public abstract sealed class ModbusAddress {
         ModbusDataType dataType,
         Set<DataTypeModifier> dataTypeModifiers) {
 
-      super(unitId, area, address, dataType, dataTypeModifiers);
+      super(
+          unitId,
+          area,
+          address,
+          dataType,
+          dataTypeModifiers,
+          ModbusCodec.of(dataType, dataTypeModifiers));
     }
   }
 
@@ -5,7 +5,8 @@ import com.kevinherron.ignition.modbus.address.DataTypeModifier.ByteOrderModifie
 import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrder;
 import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrderModifier;
 import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -20,6 +21,12 @@ public class ModbusAddressParser {
   private static final String DATA_TYPE_MODIFIERS = "[@BE|@LE|@HL|@LH]+";
   private static final String ARRAY_DIMENSIONS = "\\[\\d+]";
 
+  /**
+   * The address grammar as a regular expression.
+   *
+   * <p>{@link #parse(String)} doesn't use this; it implements the same grammar with a single-pass
+   * scanner. It's kept as the reference definition of the syntax.
+   */
   static final Pattern ADDRESS_PATTERN =
       Pattern.compile(
           """
@@ -34,153 +41,458 @@ public class ModbusAddressParser {
                   AREAS, DATA_TYPES, ARRAY_DIMENSIONS, DATA_TYPE_MODIFIERS, ARRAY_DIMENSIONS),
           Pattern.CASE_INSENSITIVE);
 
+  private static final int MAX_DIMENSIONS = 3;
+
+  private static final int[] NO_DIMENSIONS = new int[0];
+
+  private static final int BIG_ENDIAN = 1;
+  private static final int LITTLE_ENDIAN = 1 << 1;
+  private static final int HIGH_LOW = 1 << 2;
+  private static final int LOW_HIGH = 1 << 3;
+
+  /** Every combination of modifiers, indexed by a bitmask of the flags above. */
+  private static final List<Set<DataTypeModifier>> MODIFIER_SETS = new ArrayList<>(16);
+
+  static {
+    var be = new ByteOrderModifier(ByteOrder.BIG_ENDIAN);
+    var le = new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN);
+    var hl = new WordOrderModifier(WordOrder.HIGH_LOW);
+    var lh = new WordOrderModifier(WordOrder.LOW_HIGH);
+
+    for (int flags = 0; flags < 16; flags++) {
+      var modifiers = new ArrayList<DataTypeModifier>(4);
+      if ((flags & BIG_ENDIAN) != 0) {
+        modifiers.add(be);
+      }
+      if ((flags & LITTLE_ENDIAN) != 0) {
+        modifiers.add(le);
+      }
+      if ((flags & HIGH_LOW) != 0) {
+        modifiers.add(hl);
+      }
+      if ((flags & LOW_HIGH) != 0) {
+        modifiers.add(lh);
+      }
+      MODIFIER_SETS.add(Set.copyOf(modifiers));
+    }
+  }
+
+  /**
+   * Parse {@code address}.
+   *
+   * @param address the address to parse.
+   * @return the parsed {@link ModbusAddress}.
+   * @throws Exception if {@code address} isn't a valid address.
+   */
   public static ModbusAddress parse(String address) throws Exception {
-    var matcher = ADDRESS_PATTERN.matcher(address);
-    if (!matcher.matches()) {
-      throw new Exception("invalid address: " + address);
+    var scanner = new Scanner(address);
+    ModbusAddress parsed = parse(scanner);
+
+    if (parsed != null) {
+      return parsed;
+    } else {
+      throw new Exception(scanner.error.message(address));
     }
+  }
 
-    // System.out.println("0: " + matcher.group(0));
-    // System.out.println("1: " + matcher.group(1));
-    // System.out.println("2: " + matcher.group(2));
-    // System.out.println("3: " + matcher.group(3));
-    // System.out.println("4: " + matcher.group(4));
-    // System.out.println("5: " + matcher.group(5));
-    // System.out.println("6: " + matcher.group(6));
-    // System.out.println("7: " + matcher.group(7));
-    // System.out.println("8: " + matcher.group(8));
-    // System.out.println("9: " + matcher.group(9));
+  /**
+   * Parse {@code address} without throwing if it's invalid.
+   *
+   * <p>Prefer this over {@link #parse(String)} when invalid addresses are expected, e.g. when
+   * filtering NodeIds that may belong to something else; no exception is created.
+   *
+   * @param address the address to parse.
+   * @return the parsed {@link ModbusAddress}, or empty if {@code address} isn't valid.
+   */
+  public static Optional<ModbusAddress> tryParse(String address) {
+    return Optional.ofNullable(parse(new Scanner(address)));
+  }
 
-    Integer unitId = parseUnitId(matcher.group(2));
+  /**
+   * @param address the address to check.
+   * @return {@code true} if {@code address} is a valid address.
+   */
+  public static boolean isValid(String address) {
+    return parse(new Scanner(address)) != null;
+  }
 
-    ModbusArea area =
-        parseArea(matcher.group(3))
-            .orElseThrow(() -> new Exception("invalid area: " + matcher.group(3)));
+  /**
+   * Parse the address held by {@code scanner}.
+   *
+   * @return the parsed {@link ModbusAddress}, or {@code null} if the address is invalid, in which
+   *     case {@link Scanner#error} says why.
+   */
+  private static @Nullable ModbusAddress parse(Scanner scanner) {
+    Integer unitId = null;
+    if (scanner.isDigit()) {
+      int i = scanner.number();
+      if (!scanner.accept('.')) {
+        return scanner.fail(Error.INVALID_ADDRESS);
+      }
+      if (i < 0 || i > 255) {
+        return scanner.fail(Error.INVALID_UNIT_ID);
+      }
+      unitId = i;
+    }
+
+    ModbusArea area = scanner.area();
+    if (area == null) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
 
     ModbusDataType dataType =
-        parseDataType(area, matcher.group(4))
-            .orElseThrow(() -> new Exception("invalid DataType: " + matcher.group(4)));
+        switch (area) {
+          case COILS, DISCRETE_INPUTS -> ModbusDataType.BOOL;
+          case HOLDING_REGISTERS, INPUT_REGISTERS -> ModbusDataType.INT16;
+        };
+    int[] dimensions = NO_DIMENSIONS;
+    int modifiers = 0;
+
+    if (scanner.accept('<')) {
+      dataType = scanner.dataType();
+      if (dataType == null) {
+        return scanner.fail(Error.INVALID_DATA_TYPE);
+      }
+
+      dimensions = scanner.dimensions();
+      modifiers = scanner.modifiers();
 
-    List<Integer> dimensions =
-        parseArrayDimensions(matcher.group(5))
-            .orElseThrow(() -> new Exception("invalid dimensions: " + matcher.group(5)));
+      if (dimensions == null || !scanner.accept('>')) {
+        return scanner.fail(Error.INVALID_ADDRESS);
+      }
+    }
 
-    Set<DataTypeModifier> dataTypeModifiers =
-        parseDataTypeModifiers(matcher.group(6))
-            .orElseThrow(() -> new Exception("invalid modifiers: " + matcher.group(6)));
+    int offset = scanner.isDigit() ? scanner.number() : -1;
+    if (offset < 0) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
 
-    int offset = Integer.parseInt(matcher.group(7));
+    int[] indices = scanner.dimensions();
+    if (indices == null) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
 
-    if (matcher.group(9) != null) {
-      int bit = Integer.parseInt(matcher.group(9));
+    if (scanner.accept('.')) {
+      int bit = scanner.isDigit() ? scanner.number() : -1;
+      if (bit < 0) {
+        return scanner.fail(Error.INVALID_ADDRESS);
+      }
       dataType = new ModbusDataType.Bit(dataType, bit);
     }
 
-    if (dimensions.isEmpty()) {
-      return new ModbusAddress.ScalarAddress(unitId, area, offset, dataType, dataTypeModifiers);
+    if (!scanner.atEnd()) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
+
+    Set<DataTypeModifier> modifierSet = MODIFIER_SETS.get(modifiers);
+
+    if (dimensions.length == 0) {
+      // indices following the offset of a scalar are accepted but ignored
+      return new ModbusAddress.ScalarAddress(unitId, area, offset, dataType, modifierSet);
+    } else if (indices.length == 0) {
+      return array(scanner, unitId, area, offset, dataType, modifierSet, dimensions);
     } else {
-      // TODO arrays
-      throw new Exception("array address not implemented");
+      return element(scanner, unitId, area, offset, dataType, modifierSet, dimensions, indices);
     }
   }
 
-  private static @Nullable Integer parseUnitId(String unitId) throws Exception {
-    if (unitId != null) {
-      try {
-        int i = Integer.parseInt(unitId);
-        if (i < 0 || i > 255) {
-          throw new Exception("invalid unitId: " + unitId);
-        }
-        return i;
-      } catch (NumberFormatException ignored) {
-        throw new Exception("invalid unitId: " + unitId);
+  private static @Nullable ModbusAddress array(
+      Scanner scanner,
+      @Nullable Integer unitId,
+      ModbusArea area,
+      int offset,
+      ModbusDataType dataType,
+      Set<DataTypeModifier> modifiers,
+      int[] dimensions) {
+
+    if (dataType instanceof ModbusDataType.Bit) {
+      return scanner.fail(Error.INVALID_DATA_TYPE);
+    }
+
+    boolean bits = area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS;
+    if (bits && !(dataType instanceof ModbusDataType.Bool)) {
+      return scanner.fail(Error.INVALID_DATA_TYPE);
+    }
+
+    long length = 1;
+    for (int dimension : dimensions) {
+      length *= dimension;
+      if (dimension == 0 || length > 65536) {
+        return scanner.fail(Error.INVALID_ADDRESS);
       }
-    } else {
-      return null;
     }
+
+    return new ModbusAddress.ArrayAddress(
+        unitId, area, offset, dataType, modifiers, dimensions);
   }
 
-  private static Optional<ModbusArea> parseArea(String area) {
-    ModbusArea a =
-        switch (area.toUpperCase()) {
-          case "C" -> ModbusArea.COILS;
-          case "DI" -> ModbusArea.DISCRETE_INPUTS;
-          case "HR" -> ModbusArea.HOLDING_REGISTERS;
-          case "IR" -> ModbusArea.INPUT_REGISTERS;
-          default -> null;
+  /**
+   * An array type followed by indices selects one element of the array, e.g. {@code
+   * HR<float[10]>0[3]} is the float at register 6.
+   */
+  private static @Nullable ModbusAddress element(
+      Scanner scanner,
+      @Nullable Integer unitId,
+      ModbusArea area,
+      int offset,
+      ModbusDataType dataType,
+      Set<DataTypeModifier> modifiers,
+      int[] dimensions,
+      int[] indices) {
+
+    if (indices.length != dimensions.length) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
+
+    long element = 0;
+    for (int i = 0; i < dimensions.length; i++) {
+      if (indices[i] >= dimensions[i]) {
+        return scanner.fail(Error.INVALID_ADDRESS);
+      }
+      element = element * dimensions[i] + indices[i];
+    }
+
+    ModbusDataType elementType =
+        dataType instanceof ModbusDataType.Bit b ? b.underlyingType() : dataType;
+    int size =
+        switch (area) {
+          case COILS, DISCRETE_INPUTS -> 1;
+          case HOLDING_REGISTERS, INPUT_REGISTERS -> elementType.getRegisterCount();
         };
 
-    return Optional.ofNullable(a);
+    long elementOffset = offset + element * size;
+    if (elementOffset > 65535) {
+      return scanner.fail(Error.INVALID_ADDRESS);
+    }
+
+    return new ModbusAddress.ScalarAddress(
+        unitId, area, (int) elementOffset, dataType, modifiers);
   }
 
-  private static Optional<ModbusDataType> parseDataType(ModbusArea area, String dataType) {
-    if (dataType == null || dataType.isEmpty()) {
-      return switch (area) {
-        case COILS, DISCRETE_INPUTS -> Optional.of(new ModbusDataType.Bool());
-        case HOLDING_REGISTERS, INPUT_REGISTERS -> Optional.of(new ModbusDataType.Int16());
-      };
+  /** Why an address couldn't be parsed. */
+  private enum Error {
+    INVALID_ADDRESS("invalid address: "),
+    INVALID_UNIT_ID("invalid unitId: "),
+    INVALID_DATA_TYPE("invalid DataType: ");
+
+    private final String prefix;
+
+    Error(String prefix) {
+      this.prefix = prefix;
     }
 
-    ModbusDataType mdt =
-        switch (dataType.toUpperCase()) {
-          case "BOOL" -> new ModbusDataType.Bool();
-          case "INT16" -> new ModbusDataType.Int16();
-          case "UINT16" -> new ModbusDataType.UInt16();
-          case "INT32" -> new ModbusDataType.Int32();
-          case "UINT32" -> new ModbusDataType.UInt32();
-          case "INT64" -> new ModbusDataType.Int64();
-          case "UINT64" -> new ModbusDataType.UInt64();
-          case "FLOAT" -> new ModbusDataType.Float32();
-          case "DOUBLE" -> new ModbusDataType.Double64();
-          default -> null;
-        };
+    String message(String address) {
+      return prefix + address;
+    }
+  }
+
+  /** Scans an address left to right, one character at a time; case-insensitive. */
+  private static final class Scanner {
+
+    private final String s;
+    private int pos = 0;
+
+    /** Why parsing failed, once it has. */
+    private Error error = Error.INVALID_ADDRESS;
+
+    private Scanner(String s) {
+      this.s = s;
+    }
+
+    @Nullable ModbusAddress fail(Error error) {
+      this.error = error;
+      return null;
+    }
 
-    if (mdt == null) {
-      if (dataType.toUpperCase().startsWith("STRING")) {
-        try {
-          int length = Integer.parseInt(dataType.substring(6));
-          mdt = new ModbusDataType.String(length);
-        } catch (NumberFormatException ignored) {
-          // ignored
+    boolean atEnd() {
+      return pos == s.length();
+    }
+
+    boolean isDigit() {
+      return pos < s.length() && isDigit(s.charAt(pos));
+    }
+
+    boolean accept(char c) {
+      if (pos < s.length() && s.charAt(pos) == c) {
+        pos++;
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    /**
+     * Consume {@code keyword} if the remaining input starts with it, ignoring case.
+     *
+     * @param keyword an upper-case keyword.
+     * @return {@code true} if {@code keyword} was consumed.
+     */
+    boolean accept(String keyword) {
+      if (pos + keyword.length() > s.length()) {
+        return false;
+      }
+      for (int i = 0; i < keyword.length(); i++) {
+        if (toUpperCase(s.charAt(pos + i)) != keyword.charAt(i)) {
+          return false;
         }
       }
+      pos += keyword.length();
+      return true;
     }
 
-    return Optional.ofNullable(mdt);
-  }
+    /**
+     * Consume a run of one or more digits.
+     *
+     * @return the value of the digits, or {@code -1} if it doesn't fit in an {@code int}.
+     */
+    int number() {
+      long value = 0;
+      boolean overflow = false;
+
+      while (isDigit()) {
+        value = value * 10 + (s.charAt(pos++) - '0');
+        if (value > Integer.MAX_VALUE) {
+          overflow = true;
+          value = 0;
+        }
+      }
 
-  private static Optional<List<Integer>> parseArrayDimensions(String dimensions) {
-    if (dimensions == null || dimensions.isEmpty()) {
-      return Optional.of(List.of());
+      return overflow ? -1 : (int) value;
     }
-    // TODO
-    return Optional.empty();
-  }
 
-  private static Optional<Set<DataTypeModifier>> parseDataTypeModifiers(String modifiers) {
-    if (modifiers == null || modifiers.isEmpty()) {
-      return Optional.of(Set.of());
+    @Nullable ModbusArea area() {
+      if (accept("C")) {
+        return ModbusArea.COILS;
+      } else if (accept("DI")) {
+        return ModbusArea.DISCRETE_INPUTS;
+      } else if (accept("HR")) {
+        return ModbusArea.HOLDING_REGISTERS;
+      } else if (accept("IR")) {
+        return ModbusArea.INPUT_REGISTERS;
+      } else {
+        return null;
+      }
     }
 
-    // TODO this ignores invalid modifiers instead of returning empty
+    @Nullable ModbusDataType dataType() {
+      // no type name is a prefix of another, so the first match is the only one
+      if (accept("BOOL")) {
+        return ModbusDataType.BOOL;
+      } else if (accept("INT16")) {
+        return ModbusDataType.INT16;
+      } else if (accept("UINT16")) {
+        return ModbusDataType.UINT16;
+      } else if (accept("INT32")) {
+        return ModbusDataType.INT32;
+      } else if (accept("UINT32")) {
+        return ModbusDataType.UINT32;
+      } else if (accept("INT64")) {
+        return ModbusDataType.INT64;
+      } else if (accept("UINT64")) {
+        return ModbusDataType.UINT64;
+      } else if (accept("FLOAT")) {
+        return ModbusDataType.FLOAT32;
+      } else if (accept("DOUBLE")) {
+        return ModbusDataType.DOUBLE64;
+      } else if (accept("STRING")) {
+        if (!isDigit() || s.charAt(pos) == '0') {
+          return null;
+        }
+        int length = number();
+        return length > 0 ? new ModbusDataType.String(length) : null;
+      } else {
+        return null;
+      }
+    }
 
-    var set = new HashSet<DataTypeModifier>();
+    /**
+     * Consume up to {@value #MAX_DIMENSIONS} array dimensions or indices of the form {@code [N]}.
+     *
+     * @return the values consumed, or {@code null} if one is malformed.
+     */
+    int @Nullable [] dimensions() {
+      if (pos == s.length() || s.charAt(pos) != '[') {
+        return NO_DIMENSIONS;
+      }
 
-    for (String s : modifiers.split("@")) {
-      DataTypeModifier m =
-          switch (s.toUpperCase()) {
-            case "BE" -> new ByteOrderModifier(ByteOrder.BIG_ENDIAN);
-            case "LE" -> new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN);
-            case "HL" -> new WordOrderModifier(WordOrder.HIGH_LOW);
-            case "LH" -> new WordOrderModifier(WordOrder.LOW_HIGH);
-            default -> null;
-          };
+      var values = new int[MAX_DIMENSIONS];
+      int count = 0;
 
-      if (m != null) {
-        set.add(m);
+      while (count < MAX_DIMENSIONS && accept('[')) {
+        int value = isDigit() ? number() : -1;
+        if (value < 0 || !accept(']')) {
+          return null;
+        }
+        values[count++] = value;
       }
+
+      return Arrays.copyOf(values, count);
     }
 
-    return Optional.of(set);
+    /**
+     * Consume a run of modifier characters, e.g. {@code @LE@LH}.
+     *
+     * <p>The run is split on {@code @}; {@code BE}, {@code LE}, {@code HL}, and {@code LH} are
+     * recognized and anything else is ignored.
+     *
+     * @return a bitmask of the recognized modifiers.
+     */
+    int modifiers() {
+      int flags = 0;
+
+      int start = pos;
+      while (pos < s.length() && isModifierChar(s.charAt(pos))) {
+        pos++;
+      }
+      int end = pos;
+
+      int tokenStart = start;
+      for (int i = start; i <= end; i++) {
+        if (i == end || s.charAt(i) == '@') {
+          if (i - tokenStart == 2) {
+            flags |= modifier(s.charAt(tokenStart), s.charAt(tokenStart + 1));
+          }
+          tokenStart = i + 1;
+        }
+      }
+
+      return flags;
+    }
+
+    private static int modifier(char c0, char c1) {
+      c0 = toUpperCase(c0);
+      c1 = toUpperCase(c1);
+
+      if (c0 == 'B' && c1 == 'E') {
+        return BIG_ENDIAN;
+      } else if (c0 == 'L' && c1 == 'E') {
+        return LITTLE_ENDIAN;
+      } else if (c0 == 'H' && c1 == 'L') {
+        return HIGH_LOW;
+      } else if (c0 == 'L' && c1 == 'H') {
+        return LOW_HIGH;
+      } else {
+        return 0;
+      }
+    }
+
+    /**
+     * Upper-case {@code c} if it's an ASCII letter. Like {@link #ADDRESS_PATTERN}, only ASCII
+     * letters match case-insensitively; e.g. the dotless i (U+0131) doesn't match {@code I}.
+     */
+    private static char toUpperCase(char c) {
+      return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
+
+    private static boolean isModifierChar(char c) {
+      return switch (toUpperCase(c)) {
+        case '@', 'B', 'E', 'L', 'H', '|' -> true;
+        default -> false;
+      };
+    }
   }
 }
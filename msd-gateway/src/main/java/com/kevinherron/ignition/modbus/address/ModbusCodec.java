@@ -0,0 +1,770 @@
+package com.kevinherron.ignition.modbus.address;
+
+import com.digitalpetri.util.ByteArrayByteOps;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+/**
+ * Decodes and encodes the register bytes of a {@link ModbusDataType} with a given byte and word
+ * order.
+ *
+ * <p>A codec is compiled once for each {@link ModbusAddress}, when it's created, so reading or
+ * writing a value doesn't have to inspect the data type or modifiers again. Codecs are immutable
+ * and the codecs for the fixed-size data types are shared.
+ */
+public abstract class ModbusCodec {
+
+  private static final ByteArrayByteOps[] BYTE_OPS = {
+    ByteArrayByteOps.BIG_ENDIAN,
+    ByteArrayByteOps.BIG_ENDIAN_LOW_HIGH,
+    ByteArrayByteOps.LITTLE_ENDIAN,
+    ByteArrayByteOps.LITTLE_ENDIAN_LOW_HIGH
+  };
+
+  /** The codecs of the fixed-size data types, indexed by byte order and then data type. */
+  private static final ModbusCodec[][] FIXED_SIZE = new ModbusCodec[BYTE_OPS.length][];
+
+  static {
+    for (int i = 0; i < BYTE_OPS.length; i++) {
+      ByteArrayByteOps byteOps = BYTE_OPS[i];
+
+      FIXED_SIZE[i] =
+          new ModbusCodec[] {
+            new BoolCodec(byteOps),
+            new Int16Codec(byteOps),
+            new UInt16Codec(byteOps),
+            new Int32Codec(byteOps),
+            new UInt32Codec(byteOps),
+            new Int64Codec(byteOps),
+            new UInt64Codec(byteOps),
+            new Float32Codec(byteOps),
+            new Double64Codec(byteOps)
+          };
+    }
+  }
+
+  private static final Variant TRUE = new Variant(true);
+  private static final Variant FALSE = new Variant(false);
+
+  private static final int MIN_CACHED_SHORT = -128;
+  private static final int MAX_CACHED_SHORT = 1023;
+
+  /**
+   * Variants of the small {@code short} values most registers hold, from {@value
+   * #MIN_CACHED_SHORT} to {@value #MAX_CACHED_SHORT}.
+   */
+  private static final Variant[] SHORTS = new Variant[MAX_CACHED_SHORT - MIN_CACHED_SHORT + 1];
+
+  static {
+    for (int i = 0; i < SHORTS.length; i++) {
+      SHORTS[i] = new Variant((short) (i + MIN_CACHED_SHORT));
+    }
+  }
+
+  private final int registerCount;
+  private final Class<?> valueType;
+
+  private ModbusCodec(int registerCount, Class<?> valueType) {
+    this.registerCount = registerCount;
+    this.valueType = valueType;
+  }
+
+  /**
+   * @return the number of registers a value occupies.
+   */
+  public final int getRegisterCount() {
+    return registerCount;
+  }
+
+  /**
+   * @return the Java type of decoded values, and of the values that can be encoded.
+   */
+  public final Class<?> getValueType() {
+    return valueType;
+  }
+
+  /**
+   * Decode a value from the register bytes starting at {@code index} in {@code bytes}.
+   *
+   * @param bytes register bytes, big-endian, 2 bytes per register.
+   * @param index the index of the value's first byte.
+   * @return the decoded value, an instance of {@link #getValueType()}.
+   * @throws UaException if the value can't be decoded.
+   */
+  public abstract Object decode(byte[] bytes, int index) throws UaException;
+
+  /**
+   * Decode a value from the register bytes starting at {@code index} in {@code bytes}, as a
+   * {@link Variant}.
+   *
+   * <p>Booleans and small {@code short}s are decoded straight from the bytes to a shared {@link
+   * Variant}, without allocating.
+   *
+   * @param bytes register bytes, big-endian, 2 bytes per register.
+   * @param index the index of the value's first byte.
+   * @return the decoded value.
+   * @throws UaException if the value can't be decoded.
+   */
+  public Variant decodeVariant(byte[] bytes, int index) throws UaException {
+    return new Variant(decode(bytes, index));
+  }
+
+  /**
+   * Encode {@code value} into the register bytes starting at {@code index} in {@code bytes}.
+   *
+   * <p>{@link ModbusDataType.Bit} values only change one bit of the underlying value, so {@code
+   * bytes} must already hold the current underlying value.
+   *
+   * @param value the value to encode.
+   * @param bytes register bytes, big-endian, 2 bytes per register.
+   * @param index the index of the value's first byte.
+   * @throws UaException if {@code value} isn't an instance of {@link #getValueType()}.
+   */
+  public abstract void encode(Object value, byte[] bytes, int index) throws UaException;
+
+  /**
+   * Encode {@code value} into new register bytes.
+   *
+   * @param value the value to encode.
+   * @return the register bytes, big-endian, 2 bytes per register.
+   * @throws UaException if {@code value} isn't an instance of {@link #getValueType()}.
+   */
+  public byte[] encode(Object value) throws UaException {
+    var bytes = new byte[registerCount * 2];
+    encode(value, bytes, 0);
+    return bytes;
+  }
+
+  /**
+   * @return a shared {@link Variant} holding {@code value}.
+   */
+  public static Variant variant(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  /**
+   * @return a {@link Variant} holding {@code value}, shared if {@code value} is small.
+   */
+  public static Variant variant(short value) {
+    if (value >= MIN_CACHED_SHORT && value <= MAX_CACHED_SHORT) {
+      return SHORTS[value - MIN_CACHED_SHORT];
+    } else {
+      return new Variant(value);
+    }
+  }
+
+  /**
+   * Compile the codec for {@code dataType} with the byte and word order given by {@code
+   * modifiers}.
+   *
+   * @param dataType the {@link ModbusDataType}.
+   * @param modifiers the {@link DataTypeModifier}s.
+   * @return the {@link ModbusCodec}.
+   */
+  public static ModbusCodec of(ModbusDataType dataType, Set<DataTypeModifier> modifiers) {
+    int byteOrder = byteOrder(modifiers);
+
+    if (dataType instanceof ModbusDataType.Bit d) {
+      return new BitCodec(of(d.underlyingType(), modifiers), d.bit());
+    } else if (dataType instanceof ModbusDataType.String d) {
+      return new StringCodec(d);
+    }
+
+    ModbusCodec[] codecs = FIXED_SIZE[byteOrder];
+
+    if (dataType instanceof ModbusDataType.Bool) {
+      return codecs[0];
+    } else if (dataType instanceof ModbusDataType.Int16) {
+      return codecs[1];
+    } else if (dataType instanceof ModbusDataType.UInt16) {
+      return codecs[2];
+    } else if (dataType instanceof ModbusDataType.Int32) {
+      return codecs[3];
+    } else if (dataType instanceof ModbusDataType.UInt32) {
+      return codecs[4];
+    } else if (dataType instanceof ModbusDataType.Int64) {
+      return codecs[5];
+    } else if (dataType instanceof ModbusDataType.UInt64) {
+      return codecs[6];
+    } else if (dataType instanceof ModbusDataType.Float32) {
+      return codecs[7];
+    } else if (dataType instanceof ModbusDataType.Double64) {
+      return codecs[8];
+    } else {
+      throw new IllegalArgumentException("dataType: " + dataType);
+    }
+  }
+
+  /**
+   * Compile the codec for an array of {@code element}s with {@code dimensions}.
+   *
+   * @param element the {@link ModbusCodec} of each element.
+   * @param dimensions the array dimensions.
+   * @return the {@link ArrayCodec}.
+   */
+  public static ArrayCodec array(ModbusCodec element, int[] dimensions) {
+    return new ArrayCodec(element, dimensions);
+  }
+
+  /**
+   * @return the index into {@link #BYTE_OPS} for the byte and word order given by {@code
+   *     modifiers}.
+   */
+  private static int byteOrder(Set<DataTypeModifier> modifiers) {
+    DataTypeModifier.ByteOrder byteOrder = DataTypeModifier.ByteOrder.BIG_ENDIAN;
+    DataTypeModifier.WordOrder wordOrder = DataTypeModifier.WordOrder.HIGH_LOW;
+
+    for (DataTypeModifier modifier : modifiers) {
+      if (modifier instanceof DataTypeModifier.ByteOrderModifier m) {
+        byteOrder = m.byteOrder();
+      }
+      if (modifier instanceof DataTypeModifier.WordOrderModifier m) {
+        wordOrder = m.wordOrder();
+      }
+    }
+
+    return switch (byteOrder) {
+      case BIG_ENDIAN ->
+          switch (wordOrder) {
+            case HIGH_LOW -> 0;
+            case LOW_HIGH -> 1;
+          };
+      case LITTLE_ENDIAN ->
+          switch (wordOrder) {
+            case HIGH_LOW -> 2;
+            case LOW_HIGH -> 3;
+          };
+    };
+  }
+
+  /** A codec for integral values, whose individual bits can be addressed. */
+  private abstract static class IntegralCodec extends ModbusCodec {
+
+    final ByteArrayByteOps byteOps;
+
+    IntegralCodec(ByteArrayByteOps byteOps, int registerCount, Class<?> valueType) {
+      super(registerCount, valueType);
+
+      this.byteOps = byteOps;
+    }
+
+    abstract long decodeLong(byte[] bytes, int index);
+
+    abstract void encodeLong(long value, byte[] bytes, int index);
+  }
+
+  private static final class BoolCodec extends ModbusCodec {
+
+    private final ByteArrayByteOps byteOps;
+
+    BoolCodec(ByteArrayByteOps byteOps) {
+      super(1, Boolean.class);
+
+      this.byteOps = byteOps;
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getBoolean(bytes, index);
+    }
+
+    @Override
+    public Variant decodeVariant(byte[] bytes, int index) {
+      return variant(byteOps.getBoolean(bytes, index));
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Boolean v) {
+        byteOps.setBoolean(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+  }
+
+  private static final class Int16Codec extends IntegralCodec {
+
+    Int16Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 1, Short.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getShort(bytes, index);
+    }
+
+    @Override
+    public Variant decodeVariant(byte[] bytes, int index) {
+      return variant(byteOps.getShort(bytes, index));
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Short v) {
+        byteOps.setShort(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getShort(bytes, index);
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setShort(bytes, index, (short) value);
+    }
+  }
+
+  private static final class UInt16Codec extends IntegralCodec {
+
+    UInt16Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 1, UShort.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return UShort.valueOf(byteOps.getShort(bytes, index));
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof UShort v) {
+        byteOps.setShort(bytes, index, v.shortValue());
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getShort(bytes, index) & 0xFFFFL;
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setShort(bytes, index, (short) value);
+    }
+  }
+
+  private static final class Int32Codec extends IntegralCodec {
+
+    Int32Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 2, Integer.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getInt(bytes, index);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Integer v) {
+        byteOps.setInt(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getInt(bytes, index);
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setInt(bytes, index, (int) value);
+    }
+  }
+
+  private static final class UInt32Codec extends IntegralCodec {
+
+    UInt32Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 2, UInteger.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return UInteger.valueOf(byteOps.getInt(bytes, index));
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof UInteger v) {
+        byteOps.setInt(bytes, index, v.intValue());
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getInt(bytes, index) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setInt(bytes, index, (int) value);
+    }
+  }
+
+  private static final class Int64Codec extends IntegralCodec {
+
+    Int64Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 4, Long.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getLong(bytes, index);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Long v) {
+        byteOps.setLong(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getLong(bytes, index);
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setLong(bytes, index, value);
+    }
+  }
+
+  private static final class UInt64Codec extends IntegralCodec {
+
+    UInt64Codec(ByteArrayByteOps byteOps) {
+      super(byteOps, 4, ULong.class);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return ULong.valueOf(byteOps.getLong(bytes, index));
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof ULong v) {
+        byteOps.setLong(bytes, index, v.longValue());
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+
+    @Override
+    long decodeLong(byte[] bytes, int index) {
+      return byteOps.getLong(bytes, index);
+    }
+
+    @Override
+    void encodeLong(long value, byte[] bytes, int index) {
+      byteOps.setLong(bytes, index, value);
+    }
+  }
+
+  private static final class Float32Codec extends ModbusCodec {
+
+    private final ByteArrayByteOps byteOps;
+
+    Float32Codec(ByteArrayByteOps byteOps) {
+      super(2, Float.class);
+
+      this.byteOps = byteOps;
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getFloat(bytes, index);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Float v) {
+        byteOps.setFloat(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+  }
+
+  private static final class Double64Codec extends ModbusCodec {
+
+    private final ByteArrayByteOps byteOps;
+
+    Double64Codec(ByteArrayByteOps byteOps) {
+      super(4, Double.class);
+
+      this.byteOps = byteOps;
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      return byteOps.getDouble(bytes, index);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof Double v) {
+        byteOps.setDouble(bytes, index, v);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+  }
+
+  private static final class StringCodec extends ModbusCodec {
+
+    private final int length;
+
+    StringCodec(ModbusDataType.String dataType) {
+      super(dataType.getRegisterCount(), String.class);
+
+      this.length = dataType.length();
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) {
+      int length = this.length;
+      for (int i = 0; i < length; i++) {
+        if (bytes[index + i] == 0) {
+          length = i;
+          break;
+        }
+      }
+      return new String(bytes, index, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (value instanceof String v) {
+        byte[] stringBytes = v.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(stringBytes.length, getRegisterCount() * 2);
+        System.arraycopy(stringBytes, 0, bytes, index, length);
+      } else {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+    }
+  }
+
+  private static final class BitCodec extends ModbusCodec {
+
+    private final ModbusCodec underlying;
+    private final long mask;
+
+    BitCodec(ModbusCodec underlying, int bit) {
+      super(underlying.getRegisterCount(), Boolean.class);
+
+      this.underlying = underlying;
+      this.mask = 1L << bit;
+    }
+
+    @Override
+    public Variant decodeVariant(byte[] bytes, int index) throws UaException {
+      return variant((Boolean) decode(bytes, index));
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) throws UaException {
+      if (underlying instanceof IntegralCodec c) {
+        return (c.decodeLong(bytes, index) & mask) != 0L;
+      } else if (underlying.decode(bytes, index) instanceof Number n) {
+        return (n.longValue() & mask) != 0L;
+      } else {
+        throw new UaException(StatusCodes.Bad_InternalError, "underlying: " + underlying);
+      }
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      if (!(value instanceof Boolean b)) {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+
+      if (underlying instanceof IntegralCodec c) {
+        long v = c.decodeLong(bytes, index);
+        c.encodeLong(b ? v | mask : v & ~mask, bytes, index);
+      } else {
+        throw new UaException(StatusCodes.Bad_InternalError, "underlying: " + underlying);
+      }
+    }
+  }
+
+  /**
+   * A codec for arrays, decoding all elements from one contiguous range of registers.
+   *
+   * <p>Values are arrays of the element's value type, nested once per dimension; elements are
+   * stored in row-major order.
+   */
+  public static final class ArrayCodec extends ModbusCodec {
+
+    private final ModbusCodec element;
+    private final int[] dimensions;
+    private final int length;
+
+    private ArrayCodec(ModbusCodec element, int[] dimensions) {
+      super(
+          element.getRegisterCount() * length(dimensions),
+          Array.newInstance(element.getValueType(), new int[dimensions.length]).getClass());
+
+      this.element = element;
+      this.dimensions = dimensions.clone();
+      this.length = length(dimensions);
+    }
+
+    /**
+     * @return the {@link ModbusCodec} of each element.
+     */
+    public ModbusCodec getElement() {
+      return element;
+    }
+
+    /**
+     * @return the total number of elements.
+     */
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int index) throws UaException {
+      var elements = (Object[]) Array.newInstance(element.getValueType(), length);
+      int size = element.getRegisterCount() * 2;
+
+      for (int i = 0; i < length; i++) {
+        elements[i] = element.decode(bytes, index + i * size);
+      }
+
+      return toValue(elements);
+    }
+
+    @Override
+    public void encode(Object value, byte[] bytes, int index) throws UaException {
+      Object[] elements = toElements(value);
+      int size = element.getRegisterCount() * 2;
+
+      for (int i = 0; i < length; i++) {
+        element.encode(elements[i], bytes, index + i * size);
+      }
+    }
+
+    /**
+     * Nest {@code elements}, in row-major order, into an array with this codec's dimensions.
+     *
+     * @param elements {@link #getLength()} elements.
+     * @return the array value.
+     */
+    public Object toValue(Object[] elements) {
+      return nest(elements, 0, 0);
+    }
+
+    /**
+     * Flatten an array value with this codec's dimensions into its elements, in row-major order.
+     *
+     * @param value the array value.
+     * @return the {@link #getLength()} elements.
+     * @throws UaException if {@code value} isn't an array of the right type and dimensions.
+     */
+    public Object[] toElements(Object value) throws UaException {
+      if (!getValueType().isInstance(value)) {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+
+      var elements = new Object[length];
+      flatten(value, 0, elements, 0);
+      return elements;
+    }
+
+    /**
+     * @return the array of {@code dimensions[dimension]} elements or sub-arrays that starts at
+     *     element {@code start}.
+     */
+    private Object nest(Object[] elements, int dimension, int start) {
+      int n = dimensions[dimension];
+      var array = (Object[]) Array.newInstance(componentType(dimension), n);
+
+      if (dimension == dimensions.length - 1) {
+        System.arraycopy(elements, start, array, 0, n);
+      } else {
+        int stride = stride(dimension);
+        for (int i = 0; i < n; i++) {
+          array[i] = nest(elements, dimension + 1, start + i * stride);
+        }
+      }
+
+      return array;
+    }
+
+    private void flatten(Object value, int dimension, Object[] elements, int start)
+        throws UaException {
+
+      int n = dimensions[dimension];
+      if (!(value instanceof Object[] array) || array.length != n) {
+        throw new UaException(StatusCodes.Bad_TypeMismatch);
+      }
+
+      if (dimension == dimensions.length - 1) {
+        for (int i = 0; i < n; i++) {
+          if (array[i] == null) {
+            throw new UaException(StatusCodes.Bad_TypeMismatch);
+          }
+        }
+        System.arraycopy(array, 0, elements, start, n);
+      } else {
+        int stride = stride(dimension);
+        for (int i = 0; i < n; i++) {
+          flatten(array[i], dimension + 1, elements, start + i * stride);
+        }
+      }
+    }
+
+    /**
+     * @return the type of the elements of the arrays at {@code dimension}.
+     */
+    private Class<?> componentType(int dimension) {
+      int depth = dimensions.length - dimension - 1;
+      if (depth == 0) {
+        return element.getValueType();
+      } else {
+        return Array.newInstance(element.getValueType(), new int[depth]).getClass();
+      }
+    }
+
+    /**
+     * @return the number of elements in each sub-array at {@code dimension}.
+     */
+    private int stride(int dimension) {
+      int stride = 1;
+      for (int i = dimension + 1; i < dimensions.length; i++) {
+        stride *= dimensions[i];
+      }
+      return stride;
+    }
+
+    private static int length(int[] dimensions) {
+      int length = 1;
+      for (int dimension : dimensions) {
+        length *= dimension;
+      }
+      return length;
+    }
+  }
+}
@@ -15,6 +15,17 @@ public sealed interface ModbusDataType
         ModbusDataType.Double64,
         ModbusDataType.String {
 
+  // the fixed-size types are stateless; these are their only instances
+  Bool BOOL = new Bool();
+  Int16 INT16 = new Int16();
+  Int32 INT32 = new Int32();
+  Int64 INT64 = new Int64();
+  UInt16 UINT16 = new UInt16();
+  UInt32 UINT32 = new UInt32();
+  UInt64 UINT64 = new UInt64();
+  Float32 FLOAT32 = new Float32();
+  Double64 DOUBLE64 = new Double64();
+
   BuiltinDataType getBuiltinDataType();
 
   int getRegisterCount();
@@ -32,6 +43,9 @@ public sealed interface ModbusDataType
   }
 
   final class Bool implements ModbusDataType {
+
+    private Bool() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Boolean;
@@ -44,6 +58,9 @@ public sealed interface ModbusDataType
   }
 
   final class Int16 implements ModbusDataType {
+
+    private Int16() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Int16;
@@ -56,6 +73,9 @@ public sealed interface ModbusDataType
   }
 
   final class Int32 implements ModbusDataType {
+
+    private Int32() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Int32;
@@ -68,6 +88,9 @@ public sealed interface ModbusDataType
   }
 
   final class Int64 implements ModbusDataType {
+
+    private Int64() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Int64;
@@ -80,6 +103,9 @@ public sealed interface ModbusDataType
   }
 
   final class UInt16 implements ModbusDataType {
+
+    private UInt16() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.UInt16;
@@ -92,6 +118,9 @@ public sealed interface ModbusDataType
   }
 
   final class UInt32 implements ModbusDataType {
+
+    private UInt32() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.UInt32;
@@ -104,6 +133,9 @@ public sealed interface ModbusDataType
   }
 
   final class UInt64 implements ModbusDataType {
+
+    private UInt64() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.UInt64;
@@ -116,6 +148,9 @@ public sealed interface ModbusDataType
   }
 
   final class Float32 implements ModbusDataType {
+
+    private Float32() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Float;
@@ -128,6 +163,9 @@ public sealed interface ModbusDataType
   }
 
   final class Double64 implements ModbusDataType {
+
+    private Double64() {}
+
     @Override
     public BuiltinDataType getBuiltinDataType() {
       return BuiltinDataType.Double;
@@ -0,0 +1,290 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Modification;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The open persistence files of a heap process image, one {@link FileChannel} per area, and the
+ * bits or registers that have been modified since they were last written.
+ *
+ * <p>Writing happens in two steps: {@link #copyDirty(Transaction)} merges the dirty offsets into
+ * contiguous ranges and copies their current values out of the process image inside a
+ * transaction, then {@link #write(List)} writes each range with a single positional write outside
+ * of it. Calls to either must not overlap; the copy buffers are reused.
+ */
+final class AreaFiles {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<ModbusArea, FileChannel> channels = new EnumMap<>(ModbusArea.class);
+  private final Map<ModbusArea, BitSet> dirtyOffsets = new EnumMap<>(ModbusArea.class);
+  private final Map<ModbusArea, byte[]> copyBuffers = new EnumMap<>(ModbusArea.class);
+
+  private final Path folderPath;
+
+  AreaFiles(Path folderPath) {
+    this.folderPath = folderPath;
+
+    for (ModbusArea area : ModbusArea.values()) {
+      dirtyOffsets.put(area, new BitSet(RegisterArea.SIZE));
+      copyBuffers.put(area, new byte[PersistenceFiles.fileSize(area)]);
+    }
+  }
+
+  void open() throws IOException {
+    for (ModbusArea area : ModbusArea.values()) {
+      Path path = folderPath.resolve(PersistenceFiles.filename(area));
+
+      if (area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS) {
+        BitAreaFile.prepare(path);
+      }
+
+      channels.put(
+          area,
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE));
+    }
+  }
+
+  /**
+   * Read every area's file, in parallel.
+   *
+   * <p>An area whose file can't be read is logged and left out of the result.
+   *
+   * @param executor the {@link Executor} to read the files on.
+   * @return the contents of each area's file.
+   */
+  Map<ModbusArea, byte[]> read(Executor executor) {
+    var futures = new EnumMap<ModbusArea, CompletableFuture<byte[]>>(ModbusArea.class);
+
+    for (ModbusArea area : ModbusArea.values()) {
+      futures.put(
+          area,
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return readFile(area);
+                } catch (IOException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              executor));
+    }
+
+    var contents = new EnumMap<ModbusArea, byte[]>(ModbusArea.class);
+
+    futures.forEach(
+        (area, future) -> {
+          try {
+            contents.put(area, future.join());
+          } catch (CompletionException e) {
+            logger.error("Error reading {}", PersistenceFiles.filename(area), e.getCause());
+          }
+        });
+
+    return contents;
+  }
+
+  /**
+   * Load every area from the contents of its file, as previously read by {@link
+   * #read(Executor)}, with one bulk write per area.
+   *
+   * @param tx the {@link Transaction} to load the areas in.
+   * @param contents the contents of each area's file.
+   */
+  void load(Transaction tx, Map<ModbusArea, byte[]> contents) {
+    contents.forEach(
+        (area, bytes) -> {
+          switch (area) {
+            case COILS, DISCRETE_INPUTS ->
+                tx.writeBits(area, 0, BitArea.SIZE, bytes, BitAreaFile.HEADER_SIZE);
+            case HOLDING_REGISTERS, INPUT_REGISTERS ->
+                tx.writeRegisters(area, 0, RegisterArea.SIZE, bytes);
+          }
+        });
+  }
+
+  /**
+   * Read the contents of an area's file, extending it to its full size first if necessary.
+   *
+   * @param area the {@link ModbusArea} to read the file of.
+   * @return the file contents.
+   */
+  private byte[] readFile(ModbusArea area) throws IOException {
+    FileChannel channel = channels.get(area);
+    int fileSize = PersistenceFiles.fileSize(area);
+
+    if (channel.size() < fileSize) {
+      channel.write(ByteBuffer.allocate(1), fileSize - 1);
+    }
+
+    var buffer = ByteBuffer.allocate(fileSize);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        break;
+      }
+    }
+
+    return buffer.array();
+  }
+
+  /**
+   * @return the number of bits and registers marked dirty and not yet copied.
+   */
+  long dirtyCount() {
+    long count = 0;
+
+    for (BitSet dirty : dirtyOffsets.values()) {
+      synchronized (dirty) {
+        count += dirty.cardinality();
+      }
+    }
+
+    return count;
+  }
+
+  void markDirty(List<Modification> modifications) {
+    for (Modification m : modifications) {
+      BitSet dirty = dirtyOffsets.get(m.area());
+
+      synchronized (dirty) {
+        dirty.set(m.offset(), m.end());
+      }
+    }
+  }
+
+  /**
+   * Merge the dirty offsets of every area into contiguous ranges, copy their current values, and
+   * clear them.
+   *
+   * @param tx the {@link Transaction} to copy the current values in.
+   * @return a {@link PendingFileWrite} for each contiguous dirty range.
+   */
+  List<PendingFileWrite> copyDirty(Transaction tx) {
+    var writes = new ArrayList<PendingFileWrite>();
+
+    for (ModbusArea area : ModbusArea.values()) {
+      copyDirty(tx, area, writes);
+    }
+
+    return writes;
+  }
+
+  /**
+   * Merge the dirty offsets of {@code area} into contiguous ranges, copy their current values, and
+   * clear them.
+   *
+   * @param tx the {@link Transaction} to copy the current values in.
+   * @param area the {@link ModbusArea} to copy.
+   * @param writes the list to add a {@link PendingFileWrite} to for each contiguous dirty range.
+   */
+  void copyDirty(Transaction tx, ModbusArea area, List<PendingFileWrite> writes) {
+    BitSet dirty = dirtyOffsets.get(area);
+
+    synchronized (dirty) {
+      byte[] buffer = copyBuffers.get(area);
+
+      int start = dirty.nextSetBit(0);
+      while (start >= 0) {
+        int end = dirty.nextClearBit(start);
+        writes.add(copyRange(tx, area, start, end - start, buffer));
+        start = dirty.nextSetBit(end);
+      }
+
+      dirty.clear();
+    }
+  }
+
+  private static PendingFileWrite copyRange(
+      Transaction tx, ModbusArea area, int offset, int quantity, byte[] buffer) {
+
+    if (area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS) {
+      // widen to whole 64-bit words so only whole bytes are written
+      int end = (offset + quantity + 63) & ~63;
+      offset &= ~63;
+      quantity = end - offset;
+    }
+
+    int position = (int) PersistenceFiles.position(area, offset);
+
+    int length =
+        switch (area) {
+          case COILS, DISCRETE_INPUTS -> {
+            tx.readBits(area, offset, quantity, buffer, position);
+            yield quantity / 8;
+          }
+          case HOLDING_REGISTERS, INPUT_REGISTERS -> {
+            tx.readRegisters(area, offset, quantity, buffer, position);
+            yield quantity * 2;
+          }
+        };
+
+    return new PendingFileWrite(area, position, ByteBuffer.wrap(buffer, position, length));
+  }
+
+  /**
+   * Write ranges previously copied by {@link #copyDirty(Transaction)} to the files.
+   *
+   * @param writes the {@link PendingFileWrite}s to write.
+   */
+  void write(List<PendingFileWrite> writes) {
+    for (PendingFileWrite write : writes) {
+      FileChannel channel = channels.get(write.area);
+
+      try {
+        ByteBuffer buffer = write.buffer;
+        long position = write.position;
+        while (buffer.hasRemaining()) {
+          position += channel.write(buffer, position);
+        }
+      } catch (IOException e) {
+        logger.error("Error writing {}", PersistenceFiles.filename(write.area), e);
+      }
+    }
+  }
+
+  /**
+   * Force everything written so far to storage.
+   *
+   * @throws IOException if any of the files could not be forced.
+   */
+  void force() throws IOException {
+    for (FileChannel channel : channels.values()) {
+      channel.force(false);
+    }
+  }
+
+  void close() {
+    channels.forEach(
+        (area, channel) -> {
+          try {
+            channel.force(false);
+            channel.close();
+          } catch (IOException e) {
+            logger.error("Error closing {}", PersistenceFiles.filename(area), e);
+          }
+        });
+    channels.clear();
+  }
+
+  record PendingFileWrite(ModbusArea area, long position, ByteBuffer buffer) {}
+}
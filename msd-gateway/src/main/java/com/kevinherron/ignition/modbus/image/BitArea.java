@@ -0,0 +1,150 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.util.Objects;
+
+/**
+ * Storage for a bit area (coils or discrete inputs) covering the full 65536 address range.
+ *
+ * <p>Bits are stored in 64-bit words, bit {@code n} at bit {@code n % 64} of word {@code n / 64}.
+ * Reads and writes of more than one bit operate a word at a time rather than bit by bit.
+ */
+interface BitArea {
+
+  int SIZE = 65536;
+
+  int WORDS = SIZE / Long.SIZE;
+
+  /**
+   * @return the word at {@code index}, holding bits {@code index * 64} through {@code index * 64 +
+   *     63}.
+   */
+  long getWord(int index);
+
+  void setWord(int index, long value);
+
+  default boolean get(int offset) {
+    Objects.checkIndex(offset, SIZE);
+
+    return (getWord(offset >>> 6) & (1L << offset)) != 0L;
+  }
+
+  default void set(int offset, boolean value) {
+    Objects.checkIndex(offset, SIZE);
+
+    long word = getWord(offset >>> 6);
+    if (value) {
+      setWord(offset >>> 6, word | (1L << offset));
+    } else {
+      setWord(offset >>> 6, word & ~(1L << offset));
+    }
+  }
+
+  /**
+   * Read {@code quantity} bits starting at {@code offset} into {@code dst}, packed LSB-first the
+   * same way Modbus packs coils and discrete inputs in a response.
+   */
+  default void read(int offset, int quantity, byte[] dst) {
+    read(offset, quantity, dst, 0);
+  }
+
+  /**
+   * Read {@code quantity} bits starting at {@code offset} into {@code dst}, packed LSB-first,
+   * starting at byte {@code dstOffset}.
+   */
+  default void read(int offset, int quantity, byte[] dst, int dstOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(dstOffset, (quantity + 7) / 8, dst.length);
+
+    int i = 0;
+    while (i < quantity) {
+      int bit = offset + i;
+      int shift = bit & 63;
+      int n = Math.min(64 - shift, quantity - i);
+
+      long bits = getWord(bit >>> 6) >>> shift;
+
+      deposit(dst, dstOffset * 8 + i, n, bits);
+      i += n;
+    }
+  }
+
+  /**
+   * Write {@code quantity} bits starting at {@code offset} from {@code src}, packed LSB-first the
+   * same way Modbus packs coils in a request.
+   */
+  default void write(int offset, int quantity, byte[] src) {
+    write(offset, quantity, src, 0);
+  }
+
+  /**
+   * Write {@code quantity} bits starting at {@code offset} from {@code src}, packed LSB-first,
+   * starting at byte {@code srcOffset}.
+   *
+   * <p>Each word touched is updated with a single read-modify-write.
+   */
+  default void write(int offset, int quantity, byte[] src, int srcOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(srcOffset, (quantity + 7) / 8, src.length);
+
+    int i = 0;
+    while (i < quantity) {
+      int bit = offset + i;
+      int index = bit >>> 6;
+      int shift = bit & 63;
+      int n = Math.min(64 - shift, quantity - i);
+
+      long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+      long bits = extract(src, srcOffset * 8 + i, n) << shift;
+
+      if (mask == -1L) {
+        setWord(index, bits);
+      } else {
+        setWord(index, (getWord(index) & ~mask) | (bits & mask));
+      }
+      i += n;
+    }
+  }
+
+  /**
+   * Extract {@code n} bits, at most 64, from {@code src} starting at bit {@code from}.
+   *
+   * @return the bits, right-aligned.
+   */
+  private static long extract(byte[] src, int from, int n) {
+    long bits = 0L;
+    int shift = 0;
+
+    int end = from + n;
+    while (from < end) {
+      int s = from & 7;
+      int k = Math.min(8 - s, end - from);
+
+      long b = ((src[from >>> 3] & 0xFF) >>> s) & ((1 << k) - 1);
+      bits |= b << shift;
+
+      shift += k;
+      from += k;
+    }
+
+    return bits;
+  }
+
+  /**
+   * Deposit the low {@code n} bits of {@code bits} into {@code dst} starting at bit {@code from},
+   * leaving the surrounding bits unchanged.
+   */
+  private static void deposit(byte[] dst, int from, int n, long bits) {
+    int end = from + n;
+    while (from < end) {
+      int s = from & 7;
+      int k = Math.min(8 - s, end - from);
+
+      int mask = ((1 << k) - 1) << s;
+      int b = dst[from >>> 3];
+      dst[from >>> 3] = (byte) ((b & ~mask) | (((int) bits << s) & mask));
+
+      bits >>>= k;
+      from += k;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The on-disk format of the {@code coils.bin} and {@code discreteInputs.bin} persistence files.
+ *
+ * <p>A file starts with a {@value #HEADER_SIZE} byte header:
+ *
+ * <ul>
+ *   <li>the magic number {@code "MSDB"}
+ *   <li>the format version, currently {@value #VERSION}
+ *   <li>the number of bits stored, {@value BitArea#SIZE}
+ *   <li>4 reserved bytes
+ * </ul>
+ *
+ * <p>followed by the bits packed LSB-first, 8 per byte; equivalently, {@link BitArea#WORDS}
+ * little-endian 64-bit words.
+ *
+ * <p>Older versions stored one byte per bit with no header. Those files are migrated to the
+ * current format the first time they're opened.
+ */
+final class BitAreaFile {
+
+  static final int MAGIC = 0x4D534442;
+
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 16;
+
+  static final int DATA_SIZE = BitArea.SIZE / 8;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BitAreaFile.class);
+
+  private BitAreaFile() {}
+
+  /**
+   * Make sure the file at {@code path} exists and is in the current format, creating it or
+   * migrating it from the legacy one-byte-per-bit format if necessary.
+   *
+   * <p>New and migrated files are written to a temporary file first and then moved into place, so
+   * a failure part way through leaves the original file intact.
+   *
+   * @param path the path of the file.
+   * @throws IOException if the file could not be read, created, or migrated, or it's in an
+   *     unsupported format version.
+   */
+  static void prepare(Path path) throws IOException {
+    byte[] legacy;
+
+    if (Files.exists(path)) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        if (channel.size() >= HEADER_SIZE) {
+          ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+          while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+              break;
+            }
+          }
+          header.flip();
+
+          if (header.getInt(0) == MAGIC) {
+            int version = header.getInt(4);
+            if (version != VERSION) {
+              throw new IOException("unsupported version " + version + ": " + path);
+            }
+            return;
+          }
+        }
+
+        legacy = new byte[(int) Math.min(channel.size(), BitArea.SIZE)];
+        ByteBuffer buffer = ByteBuffer.wrap(legacy);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, buffer.position()) < 0) {
+            break;
+          }
+        }
+      }
+
+      if (legacy.length > 0) {
+        LOGGER.info("Migrating {} to bit-packed format version {}", path, VERSION);
+      }
+    } else {
+      legacy = new byte[0];
+    }
+
+    ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + DATA_SIZE);
+    file.putInt(MAGIC).putInt(VERSION).putInt(BitArea.SIZE).putInt(0);
+
+    byte[] data = file.array();
+    for (int i = 0; i < legacy.length; i++) {
+      if (legacy[i] != 0) {
+        data[HEADER_SIZE + i / 8] |= (byte) (1 << (i % 8));
+      }
+    }
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+
+      file.rewind();
+      while (file.hasRemaining()) {
+        channel.write(file, file.position());
+      }
+      channel.force(true);
+    }
+
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param fileBuffer a buffer holding an entire file in the current format.
+   * @return a view of the data following the header, in the little-endian byte order words are
+   *     stored in.
+   */
+  static ByteBuffer data(ByteBuffer fileBuffer) {
+    return fileBuffer.slice(HEADER_SIZE, DATA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,168 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.image.AreaFiles.PendingFileWrite;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Modification;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import com.kevinherron.ignition.modbus.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PersistenceMode#FILE} persistence: the process image lives on the heap, is loaded from
+ * the persistence files when opened, and modifications are copied back to the files afterward.
+ *
+ * <p>Each area's file is opened once and kept open until the persistence is closed. Modifications
+ * only mark bits or registers dirty; every flush interval the dirty offsets are merged into
+ * contiguous ranges, their current values are copied out of the process image, and each range is
+ * written with a single positional write. A bit or register modified many times between flushes
+ * is written once.
+ */
+public class FilePersistence implements ProcessImagePersistence {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final ModificationListener modificationListener = new ModificationListener();
+
+  private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+  private ModbusProcessImage processImage;
+  private ScheduledFuture<?> flushFuture;
+
+  private final AreaFiles files;
+
+  private final Path folderPath;
+  private final long flushIntervalMillis;
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+  private final ExecutionQueue flushQueue;
+
+  /**
+   * @param folderPath the folder the persistence files are stored in.
+   * @param flushIntervalMillis how often, in milliseconds, modifications are written to the
+   *     files; {@code 0} to write after every modifying transaction.
+   * @param scheduler the {@link ScheduledExecutorService} periodic flushes are scheduled on.
+   * @param executor the {@link Executor} the files are loaded and flushed on.
+   * @throws IllegalArgumentException if {@code flushIntervalMillis} is negative.
+   */
+  public FilePersistence(
+      Path folderPath,
+      long flushIntervalMillis,
+      ScheduledExecutorService scheduler,
+      Executor executor) {
+
+    if (flushIntervalMillis < 0) {
+      throw new IllegalArgumentException("flushIntervalMillis: " + flushIntervalMillis);
+    }
+
+    this.folderPath = folderPath.toAbsolutePath();
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.scheduler = scheduler;
+    this.executor = executor;
+
+    files = new AreaFiles(this.folderPath);
+    flushQueue = new ExecutionQueue(executor);
+  }
+
+  @Override
+  public ModbusProcessImage open() throws IOException {
+    Files.createDirectories(folderPath);
+
+    files.open();
+
+    Map<ModbusArea, byte[]> contents = files.read(executor);
+
+    processImage = new ModbusProcessImage();
+    processImage.with(tx -> files.load(tx, contents));
+    processImage.addModificationListener(modificationListener);
+
+    if (flushIntervalMillis > 0) {
+      flushFuture =
+          scheduler.scheduleWithFixedDelay(
+              () -> flushQueue.submit(this::flush),
+              flushIntervalMillis,
+              flushIntervalMillis,
+              TimeUnit.MILLISECONDS);
+    }
+
+    return processImage;
+  }
+
+  @Override
+  public void close() {
+    if (flushFuture != null) {
+      flushFuture.cancel(false);
+      flushFuture = null;
+    }
+
+    if (processImage != null) {
+      processImage.removeModificationListener(modificationListener);
+
+      flush();
+    }
+
+    files.close();
+  }
+
+  @Override
+  public long getPendingCount() {
+    return files.dirtyCount();
+  }
+
+  @Override
+  public LatencyHistogram getFlushLatency() {
+    return flushLatency;
+  }
+
+  /**
+   * Write the current value of every dirty bit or register to the files.
+   *
+   * <p>Each area is copied in its own transaction, so a flush only blocks writes to one area at a
+   * time.
+   */
+  private synchronized void flush() {
+    long startTime = System.nanoTime();
+
+    var writes = new ArrayList<PendingFileWrite>();
+
+    for (ModbusArea area : ModbusArea.values()) {
+      processImage.get(
+          area,
+          tx -> {
+            files.copyDirty(tx, area, writes);
+            return null;
+          });
+    }
+
+    if (!writes.isEmpty()) {
+      files.write(writes);
+
+      flushLatency.record(System.nanoTime() - startTime);
+    }
+  }
+
+  private class ModificationListener implements ModbusProcessImage.ModificationListener {
+
+    @Override
+    public void onModifications(Transaction tx, List<Modification> modifications) {
+      logger.trace("onModifications: {}", modifications);
+
+      files.markDirty(modifications);
+
+      if (flushIntervalMillis == 0) {
+        flushQueue.submit(FilePersistence.this::flush);
+      }
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.util.Objects;
+
+/** A {@link BitArea} backed by a {@code long[]} bitset on the heap. */
+final class HeapBitArea implements BitArea {
+
+  private final long[] words = new long[WORDS];
+
+  @Override
+  public long getWord(int index) {
+    return words[index];
+  }
+
+  @Override
+  public void setWord(int index, long value) {
+    words[index] = value;
+  }
+
+  @Override
+  public boolean get(int offset) {
+    Objects.checkIndex(offset, SIZE);
+
+    return (words[offset >>> 6] & (1L << offset)) != 0L;
+  }
+
+  @Override
+  public void set(int offset, boolean value) {
+    Objects.checkIndex(offset, SIZE);
+
+    if (value) {
+      words[offset >>> 6] |= (1L << offset);
+    } else {
+      words[offset >>> 6] &= ~(1L << offset);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.util.Objects;
+
+/** A {@link RegisterArea} backed by a {@code short[]} on the heap. */
+final class HeapRegisterArea implements RegisterArea {
+
+  private final short[] registers = new short[SIZE];
+
+  @Override
+  public int get(int offset) {
+    return registers[offset] & 0xFFFF;
+  }
+
+  @Override
+  public void set(int offset, int value) {
+    registers[offset] = (short) value;
+  }
+
+  @Override
+  public void read(int offset, int quantity, byte[] dst, int dstOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(dstOffset, quantity * 2, dst.length);
+
+    for (int i = 0; i < quantity; i++) {
+      short value = registers[offset + i];
+      dst[dstOffset + i * 2] = (byte) (value >> 8);
+      dst[dstOffset + i * 2 + 1] = (byte) value;
+    }
+  }
+
+  @Override
+  public void write(int offset, int quantity, byte[] src, int srcOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(srcOffset, quantity * 2, src.length);
+
+    for (int i = 0; i < quantity; i++) {
+      int high = src[srcOffset + i * 2] & 0xFF;
+      int low = src[srcOffset + i * 2 + 1] & 0xFF;
+      registers[offset + i] = (short) ((high << 8) | low);
+    }
+  }
+}
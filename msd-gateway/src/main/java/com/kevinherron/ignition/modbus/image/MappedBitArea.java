@@ -0,0 +1,37 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A {@link BitArea} stored directly in a {@link MappedByteBuffer} holding a {@code coils.bin} or
+ * {@code discreteInputs.bin} persistence file in the {@link BitAreaFile} format.
+ */
+final class MappedBitArea implements BitArea {
+
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer words;
+
+  MappedBitArea(MappedByteBuffer buffer) {
+    if (buffer.capacity() < BitAreaFile.HEADER_SIZE + BitAreaFile.DATA_SIZE) {
+      throw new IllegalArgumentException("buffer capacity: " + buffer.capacity());
+    }
+
+    this.buffer = buffer;
+    this.words = BitAreaFile.data(buffer);
+  }
+
+  @Override
+  public long getWord(int index) {
+    return words.getLong(index * Long.BYTES);
+  }
+
+  @Override
+  public void setWord(int index, long value) {
+    words.putLong(index * Long.BYTES, value);
+  }
+
+  MappedByteBuffer getBuffer() {
+    return buffer;
+  }
+}
@@ -0,0 +1,261 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Modification;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import com.kevinherron.ignition.modbus.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PersistenceMode#MEMORY_MAPPED} persistence: each area's persistence file is
+ * memory-mapped and the mapped buffer is the area's storage, so modifications reach the page cache
+ * without being copied and opening the process image doesn't read the files at all.
+ *
+ * <p>Modified pages are written back by the OS on its own schedule. To bound how much can be lost
+ * on a crash or power failure, modified ranges are also explicitly forced to storage according to
+ * the configured sync interval: after every modifying transaction when the interval is {@code 0},
+ * otherwise periodically.
+ *
+ * <p>Java has no way to unmap a buffer explicitly; a mapping is released when its buffer is
+ * garbage collected. {@link #close()} drops this persistence's references to the buffers, but the
+ * files stay mapped while anything still references the closed {@link ModbusProcessImage}. On
+ * Windows, a mapped file can't be deleted, truncated, or replaced, so removing a device folder
+ * right after its device is deleted may fail until the buffers have been collected.
+ */
+public class MappedPersistence implements ProcessImagePersistence {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<ModbusArea, MappedByteBuffer> buffers = new EnumMap<>(ModbusArea.class);
+  private final Map<ModbusArea, DirtyRange> dirtyRanges = new EnumMap<>(ModbusArea.class);
+
+  private final ModificationListener modificationListener = new ModificationListener();
+
+  private final LatencyHistogram syncLatency = new LatencyHistogram();
+
+  private ModbusProcessImage processImage;
+  private ScheduledFuture<?> syncFuture;
+
+  private final Path folderPath;
+  private final long syncIntervalMillis;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutionQueue syncQueue;
+
+  /**
+   * @param folderPath the folder the persistence files are stored in.
+   * @param syncIntervalMillis how often, in milliseconds, modified ranges are forced to storage;
+   *     {@code 0} to force after every modifying transaction.
+   * @param scheduler the {@link ScheduledExecutorService} periodic syncs are scheduled on.
+   * @param executor the {@link Executor} syncs are run on.
+   * @throws IllegalArgumentException if {@code syncIntervalMillis} is negative.
+   */
+  public MappedPersistence(
+      Path folderPath,
+      long syncIntervalMillis,
+      ScheduledExecutorService scheduler,
+      Executor executor) {
+
+    if (syncIntervalMillis < 0) {
+      throw new IllegalArgumentException("syncIntervalMillis: " + syncIntervalMillis);
+    }
+
+    this.folderPath = folderPath.toAbsolutePath();
+    this.syncIntervalMillis = syncIntervalMillis;
+    this.scheduler = scheduler;
+
+    syncQueue = new ExecutionQueue(executor);
+
+    for (ModbusArea area : ModbusArea.values()) {
+      dirtyRanges.put(area, new DirtyRange());
+    }
+  }
+
+  @Override
+  public ModbusProcessImage open() throws IOException {
+    Files.createDirectories(folderPath);
+
+    for (ModbusArea area : ModbusArea.values()) {
+      buffers.put(area, map(area));
+    }
+
+    processImage =
+        new ModbusProcessImage(
+            new MappedBitArea(buffers.get(ModbusArea.COILS)),
+            new MappedBitArea(buffers.get(ModbusArea.DISCRETE_INPUTS)),
+            new MappedRegisterArea(buffers.get(ModbusArea.HOLDING_REGISTERS)),
+            new MappedRegisterArea(buffers.get(ModbusArea.INPUT_REGISTERS)));
+
+    processImage.addModificationListener(modificationListener);
+
+    if (syncIntervalMillis > 0) {
+      syncFuture =
+          scheduler.scheduleWithFixedDelay(
+              () -> syncQueue.submit(this::sync),
+              syncIntervalMillis,
+              syncIntervalMillis,
+              TimeUnit.MILLISECONDS);
+    }
+
+    return processImage;
+  }
+
+  @Override
+  public void close() {
+    if (syncFuture != null) {
+      syncFuture.cancel(false);
+      syncFuture = null;
+    }
+
+    if (processImage != null) {
+      processImage.removeModificationListener(modificationListener);
+      processImage = null;
+    }
+
+    synchronized (this) {
+      sync();
+
+      // let the mappings be released once the process image is unreachable too
+      buffers.clear();
+    }
+  }
+
+  @Override
+  public long getPendingCount() {
+    long count = 0;
+
+    for (DirtyRange dirty : dirtyRanges.values()) {
+      synchronized (dirty) {
+        if (!dirty.isEmpty()) {
+          count += dirty.end - dirty.start;
+        }
+      }
+    }
+
+    return count;
+  }
+
+  @Override
+  public LatencyHistogram getFlushLatency() {
+    return syncLatency;
+  }
+
+  private MappedByteBuffer map(ModbusArea area) throws IOException {
+    Path path = folderPath.resolve(PersistenceFiles.filename(area));
+
+    if (area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS) {
+      BitAreaFile.prepare(path);
+    }
+
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+
+      // mapping a region larger than the file extends it; the mapping stays valid after the
+      // channel is closed
+      return channel.map(MapMode.READ_WRITE, 0, PersistenceFiles.fileSize(area));
+    }
+  }
+
+  /**
+   * Force any ranges modified since the last sync to storage.
+   *
+   * <p>Each dirty range is cleared before it's forced, so modifications made while forcing are
+   * kept for the next sync, and put back if forcing fails, so they're retried by the next sync.
+   */
+  private synchronized void sync() {
+    long startTime = System.nanoTime();
+    boolean synced = false;
+
+    for (Map.Entry<ModbusArea, MappedByteBuffer> entry : buffers.entrySet()) {
+      ModbusArea area = entry.getKey();
+      DirtyRange dirty = dirtyRanges.get(area);
+
+      int dirtyStart;
+      int dirtyEnd;
+      synchronized (dirty) {
+        if (dirty.isEmpty()) {
+          continue;
+        }
+        dirtyStart = dirty.start;
+        dirtyEnd = dirty.end;
+        dirty.clear();
+      }
+
+      int start = (int) PersistenceFiles.position(area, dirtyStart);
+      int end = (int) PersistenceFiles.endPosition(area, dirtyEnd);
+
+      try {
+        entry.getValue().force(start, end - start);
+        synced = true;
+      } catch (Exception e) {
+        logger.error("Error syncing {}", PersistenceFiles.filename(area), e);
+
+        synchronized (dirty) {
+          dirty.include(dirtyStart, dirtyEnd);
+        }
+      }
+    }
+
+    if (synced) {
+      syncLatency.record(System.nanoTime() - startTime);
+    }
+  }
+
+  private class ModificationListener implements ModbusProcessImage.ModificationListener {
+
+    @Override
+    public void onModifications(Transaction tx, List<Modification> modifications) {
+      for (Modification m : modifications) {
+        DirtyRange dirty = dirtyRanges.get(m.area());
+
+        synchronized (dirty) {
+          dirty.include(m.offset(), m.end());
+        }
+      }
+
+      if (syncIntervalMillis == 0) {
+        syncQueue.submit(MappedPersistence.this::sync);
+      }
+    }
+  }
+
+  /** The smallest range of bits or registers covering every modification since the last sync. */
+  private static class DirtyRange {
+
+    int start = Integer.MAX_VALUE;
+    int end = Integer.MIN_VALUE;
+
+    boolean isEmpty() {
+      return start >= end;
+    }
+
+    void include(int start, int end) {
+      this.start = Math.min(this.start, start);
+      this.end = Math.max(this.end, end);
+    }
+
+    void clear() {
+      start = Integer.MAX_VALUE;
+      end = Integer.MIN_VALUE;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.nio.MappedByteBuffer;
+
+/**
+ * A {@link RegisterArea} stored directly in a {@link MappedByteBuffer}, 2 bytes per register,
+ * big-endian, using the same layout as the {@code holdingRegisters.bin} and {@code
+ * inputRegisters.bin} persistence files.
+ */
+final class MappedRegisterArea implements RegisterArea {
+
+  private final MappedByteBuffer buffer;
+
+  MappedRegisterArea(MappedByteBuffer buffer) {
+    if (buffer.capacity() < SIZE * 2) {
+      throw new IllegalArgumentException("buffer capacity: " + buffer.capacity());
+    }
+
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int get(int offset) {
+    return buffer.getShort(offset * 2) & 0xFFFF;
+  }
+
+  @Override
+  public void set(int offset, int value) {
+    buffer.putShort(offset * 2, (short) value);
+  }
+
+  MappedByteBuffer getBuffer() {
+    return buffer;
+  }
+}
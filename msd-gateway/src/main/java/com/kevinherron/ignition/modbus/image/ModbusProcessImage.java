@@ -0,0 +1,470 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A Modbus process image backed by dense storage, one per area.
+ *
+ * <p>By default coils and discrete inputs are stored as {@code long[]} bitsets and holding and
+ * input registers as {@code short[]}, so reading or writing any register is an array index rather
+ * than a boxed map lookup. {@link MappedPersistence} instead creates a process image whose areas
+ * are memory-mapped persistence files.
+ *
+ * <p>All access happens inside a {@link Transaction}, obtained via {@link #get(Function)} for
+ * reads or {@link #with(Consumer)} for writes. Each area has its own read/write lock and a
+ * transaction only locks the areas it can access, so, for example, a burst of holding register
+ * writes doesn't block coil reads. Short reads that run often can use {@link
+ * #getOptimistic(ModbusArea, Function)} to avoid taking a lock at all.
+ *
+ * <p>The locks aren't reentrant: a transaction must not start another transaction.
+ */
+public class ModbusProcessImage {
+
+  /** The number of bytes of storage the areas of a process image occupy. */
+  public static final long STORAGE_SIZE =
+      2L * BitArea.WORDS * Long.BYTES + 2L * RegisterArea.SIZE * Short.BYTES;
+
+  private static final ModbusArea[] AREAS = ModbusArea.values();
+
+  private static final Set<ModbusArea> ALL_AREAS =
+      Collections.unmodifiableSet(EnumSet.allOf(ModbusArea.class));
+
+  private static final Map<ModbusArea, Set<ModbusArea>> SINGLE_AREAS =
+      new EnumMap<>(ModbusArea.class);
+
+  static {
+    for (ModbusArea area : AREAS) {
+      SINGLE_AREAS.put(area, Collections.unmodifiableSet(EnumSet.of(area)));
+    }
+  }
+
+  /** How many optimistic reads are attempted before falling back to taking the read lock. */
+  private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+  private final Map<ModbusArea, StampedLock> locks = new EnumMap<>(ModbusArea.class);
+
+  private final BitArea coils;
+  private final BitArea discreteInputs;
+  private final RegisterArea holdingRegisters;
+  private final RegisterArea inputRegisters;
+
+  private final List<ModificationListener> modificationListeners = new CopyOnWriteArrayList<>();
+
+  public ModbusProcessImage() {
+    this(new HeapBitArea(), new HeapBitArea(), new HeapRegisterArea(), new HeapRegisterArea());
+  }
+
+  ModbusProcessImage(
+      BitArea coils,
+      BitArea discreteInputs,
+      RegisterArea holdingRegisters,
+      RegisterArea inputRegisters) {
+
+    this.coils = coils;
+    this.discreteInputs = discreteInputs;
+    this.holdingRegisters = holdingRegisters;
+    this.inputRegisters = inputRegisters;
+
+    for (ModbusArea area : AREAS) {
+      locks.put(area, new StampedLock());
+    }
+  }
+
+  /**
+   * Get a value from the process image inside a read-only {@link Transaction} that can access
+   * every area.
+   *
+   * @param f the function to apply to the {@link Transaction}.
+   * @param <T> the type of the value returned.
+   * @return the value returned by {@code f}.
+   */
+  public <T> T get(Function<Transaction, T> f) {
+    return get(ALL_AREAS, f);
+  }
+
+  /**
+   * Get a value from the process image inside a read-only {@link Transaction} that can only
+   * access {@code area}.
+   *
+   * <p>Transactions on different areas don't block each other.
+   *
+   * @param area the {@link ModbusArea} the transaction accesses.
+   * @param f the function to apply to the {@link Transaction}.
+   * @param <T> the type of the value returned.
+   * @return the value returned by {@code f}.
+   */
+  public <T> T get(ModbusArea area, Function<Transaction, T> f) {
+    return get(SINGLE_AREAS.get(area), f);
+  }
+
+  /**
+   * Get a value from the process image inside a read-only {@link Transaction} that can only
+   * access {@code areas}.
+   *
+   * @param areas the {@link ModbusArea}s the transaction accesses.
+   * @param f the function to apply to the {@link Transaction}.
+   * @param <T> the type of the value returned.
+   * @return the value returned by {@code f}.
+   */
+  public <T> T get(Set<ModbusArea> areas, Function<Transaction, T> f) {
+    lock(areas, false);
+    try {
+      return f.apply(new Transaction(areas, true));
+    } finally {
+      unlock(areas, false);
+    }
+  }
+
+  /**
+   * Get a value from the process image inside a read-only {@link Transaction} that can only
+   * access {@code area}, optimistically, without taking its lock.
+   *
+   * <p>{@code f} runs without blocking or being blocked by writers. If a write to {@code area}
+   * happened while it was running its result is discarded and it's run again, falling back to
+   * taking the read lock after a few attempts, so the value returned is never torn: a
+   * multi-register value is either entirely from before or entirely from after any write.
+   *
+   * <p>Because {@code f} may observe a write in progress, it must only copy values out of the
+   * transaction; interpreting them has to happen after this method returns. {@code f} may be
+   * invoked more than once.
+   *
+   * @param area the {@link ModbusArea} the transaction accesses.
+   * @param f the function to apply to the {@link Transaction}.
+   * @param <T> the type of the value returned.
+   * @return the value returned by {@code f}.
+   */
+  public <T> T getOptimistic(ModbusArea area, Function<Transaction, T> f) {
+    return getOptimistic(SINGLE_AREAS.get(area), f);
+  }
+
+  /**
+   * Get a value from the process image inside a read-only {@link Transaction} that can only
+   * access {@code areas}, optimistically, without taking their locks.
+   *
+   * <p>As {@link #getOptimistic(ModbusArea, Function)}, except that the value is discarded if a
+   * write to any of {@code areas} happened while {@code f} was running, so values copied from
+   * different areas are a consistent snapshot.
+   *
+   * @param areas the {@link ModbusArea}s the transaction accesses.
+   * @param f the function to apply to the {@link Transaction}.
+   * @param <T> the type of the value returned.
+   * @return the value returned by {@code f}.
+   */
+  public <T> T getOptimistic(Set<ModbusArea> areas, Function<Transaction, T> f) {
+    var stamps = new long[AREAS.length];
+
+    attempts:
+    for (int i = 0; i < OPTIMISTIC_READ_ATTEMPTS; i++) {
+      for (ModbusArea area : areas) {
+        long stamp = locks.get(area).tryOptimisticRead();
+        if (stamp == 0L) {
+          // write locked
+          Thread.onSpinWait();
+          continue attempts;
+        }
+        stamps[area.ordinal()] = stamp;
+      }
+
+      T value;
+      try {
+        value = f.apply(new Transaction(areas, true));
+      } catch (RuntimeException e) {
+        if (validate(areas, stamps)) {
+          throw e;
+        } else {
+          continue;
+        }
+      }
+
+      if (validate(areas, stamps)) {
+        return value;
+      }
+    }
+
+    return get(areas, f);
+  }
+
+  private boolean validate(Set<ModbusArea> areas, long[] stamps) {
+    for (ModbusArea area : areas) {
+      if (!locks.get(area).validate(stamps[area.ordinal()])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Modify the process image inside a read/write {@link Transaction} that can access every area.
+   *
+   * <p>Any {@link ModificationListener}s are notified of the modifications made before the
+   * transaction completes.
+   *
+   * @param f the {@link Consumer} to invoke with the {@link Transaction}.
+   */
+  public void with(Consumer<Transaction> f) {
+    with(ALL_AREAS, f);
+  }
+
+  /**
+   * Modify the process image inside a read/write {@link Transaction} that can only access {@code
+   * area}.
+   *
+   * <p>Transactions on different areas don't block each other. Any {@link
+   * ModificationListener}s are notified of the modifications made before the transaction
+   * completes.
+   *
+   * @param area the {@link ModbusArea} the transaction accesses.
+   * @param f the {@link Consumer} to invoke with the {@link Transaction}.
+   */
+  public void with(ModbusArea area, Consumer<Transaction> f) {
+    with(SINGLE_AREAS.get(area), f);
+  }
+
+  /**
+   * Modify the process image inside a read/write {@link Transaction} that can only access {@code
+   * areas}.
+   *
+   * <p>Any {@link ModificationListener}s are notified of the modifications made before the
+   * transaction completes.
+   *
+   * @param areas the {@link ModbusArea}s the transaction accesses.
+   * @param f the {@link Consumer} to invoke with the {@link Transaction}.
+   */
+  public void with(Set<ModbusArea> areas, Consumer<Transaction> f) {
+    lock(areas, true);
+    try {
+      var tx = new Transaction(areas, false);
+      f.accept(tx);
+
+      if (!tx.modifications.isEmpty()) {
+        tx.readOnly = true;
+        List<Modification> modifications = List.copyOf(tx.modifications);
+        modificationListeners.forEach(l -> l.onModifications(tx, modifications));
+      }
+    } finally {
+      unlock(areas, true);
+    }
+  }
+
+  /** Lock each of {@code areas}, always in the same order, so transactions can't deadlock. */
+  private void lock(Set<ModbusArea> areas, boolean write) {
+    for (ModbusArea area : AREAS) {
+      if (areas.contains(area)) {
+        StampedLock lock = locks.get(area);
+        (write ? lock.asWriteLock() : lock.asReadLock()).lock();
+      }
+    }
+  }
+
+  private void unlock(Set<ModbusArea> areas, boolean write) {
+    for (int i = AREAS.length - 1; i >= 0; i--) {
+      if (areas.contains(AREAS[i])) {
+        StampedLock lock = locks.get(AREAS[i]);
+        (write ? lock.asWriteLock() : lock.asReadLock()).unlock();
+      }
+    }
+  }
+
+  public void addModificationListener(ModificationListener listener) {
+    modificationListeners.add(listener);
+  }
+
+  public void removeModificationListener(ModificationListener listener) {
+    modificationListeners.remove(listener);
+  }
+
+  private BitArea bitArea(ModbusArea area) {
+    return switch (area) {
+      case COILS -> coils;
+      case DISCRETE_INPUTS -> discreteInputs;
+      default -> throw new IllegalArgumentException("not a bit area: " + area);
+    };
+  }
+
+  private RegisterArea registerArea(ModbusArea area) {
+    return switch (area) {
+      case HOLDING_REGISTERS -> holdingRegisters;
+      case INPUT_REGISTERS -> inputRegisters;
+      default -> throw new IllegalArgumentException("not a register area: " + area);
+    };
+  }
+
+  public class Transaction {
+
+    private final List<Modification> modifications = new ArrayList<>();
+
+    private final Set<ModbusArea> areas;
+    private boolean readOnly;
+
+    private Transaction(Set<ModbusArea> areas, boolean readOnly) {
+      this.areas = areas;
+      this.readOnly = readOnly;
+    }
+
+    public boolean readBit(ModbusArea area, int offset) {
+      return bitArea(area).get(offset);
+    }
+
+    /**
+     * Read {@code quantity} bits from {@code area} starting at {@code offset}.
+     *
+     * @return the bits, packed LSB-first, 8 per byte.
+     */
+    public byte[] readBits(ModbusArea area, int offset, int quantity) {
+      var bits = new byte[(quantity + 7) / 8];
+      bitArea(area).read(offset, quantity, bits);
+      return bits;
+    }
+
+    public void readBits(ModbusArea area, int offset, int quantity, byte[] dst, int dstOffset) {
+      bitArea(area).read(offset, quantity, dst, dstOffset);
+    }
+
+    public void writeBit(ModbusArea area, int offset, boolean value) {
+      checkWritable();
+      bitArea(area).set(offset, value);
+      modified(area, offset, 1);
+    }
+
+    /**
+     * Write {@code quantity} bits to {@code area} starting at {@code offset}.
+     *
+     * @param bits the bits, packed LSB-first, 8 per byte.
+     */
+    public void writeBits(ModbusArea area, int offset, int quantity, byte[] bits) {
+      writeBits(area, offset, quantity, bits, 0);
+    }
+
+    public void writeBits(ModbusArea area, int offset, int quantity, byte[] src, int srcOffset) {
+      checkWritable();
+      bitArea(area).write(offset, quantity, src, srcOffset);
+      modified(area, offset, quantity);
+    }
+
+    /**
+     * Read the register at {@code offset} in {@code area}.
+     *
+     * @return the register value as an unsigned 16-bit value.
+     */
+    public int readRegister(ModbusArea area, int offset) {
+      return registerArea(area).get(offset);
+    }
+
+    /**
+     * Read {@code quantity} registers from {@code area} starting at {@code offset}.
+     *
+     * @return the register values, big-endian, 2 bytes per register.
+     */
+    public byte[] readRegisters(ModbusArea area, int offset, int quantity) {
+      var registers = new byte[quantity * 2];
+      registerArea(area).read(offset, quantity, registers, 0);
+      return registers;
+    }
+
+    public void readRegisters(
+        ModbusArea area, int offset, int quantity, byte[] dst, int dstOffset) {
+
+      registerArea(area).read(offset, quantity, dst, dstOffset);
+    }
+
+    public void writeRegister(ModbusArea area, int offset, int value) {
+      checkWritable();
+      registerArea(area).set(offset, value);
+      modified(area, offset, 1);
+    }
+
+    /**
+     * Write {@code quantity} registers to {@code area} starting at {@code offset}.
+     *
+     * @param registers the register values, big-endian, 2 bytes per register.
+     */
+    public void writeRegisters(ModbusArea area, int offset, int quantity, byte[] registers) {
+      writeRegisters(area, offset, quantity, registers, 0);
+    }
+
+    public void writeRegisters(
+        ModbusArea area, int offset, int quantity, byte[] src, int srcOffset) {
+
+      checkWritable();
+      registerArea(area).write(offset, quantity, src, srcOffset);
+      modified(area, offset, quantity);
+    }
+
+    private BitArea bitArea(ModbusArea area) {
+      checkAccess(area);
+      return ModbusProcessImage.this.bitArea(area);
+    }
+
+    private RegisterArea registerArea(ModbusArea area) {
+      checkAccess(area);
+      return ModbusProcessImage.this.registerArea(area);
+    }
+
+    private void checkAccess(ModbusArea area) {
+      if (!areas.contains(area)) {
+        throw new IllegalStateException("area not accessible in this transaction: " + area);
+      }
+    }
+
+    private void checkWritable() {
+      if (readOnly) {
+        throw new IllegalStateException("read-only transaction");
+      }
+    }
+
+    private void modified(ModbusArea area, int offset, int quantity) {
+      if (!modifications.isEmpty()) {
+        // coalesce with the previous modification if it's adjacent or overlapping
+        int last = modifications.size() - 1;
+        Modification m = modifications.get(last);
+        if (m.area() == area && offset <= m.end() && offset + quantity >= m.offset()) {
+          int start = Math.min(m.offset(), offset);
+          int end = Math.max(m.end(), offset + quantity);
+          modifications.set(last, new Modification(area, start, end - start));
+          return;
+        }
+      }
+      modifications.add(new Modification(area, offset, quantity));
+    }
+  }
+
+  /**
+   * A contiguous range of {@code quantity} bits or registers in {@code area}, starting at
+   * {@code offset}, that was modified in a {@link Transaction}.
+   */
+  public record Modification(ModbusArea area, int offset, int quantity) {
+
+    /**
+     * @return the offset immediately after the last modified bit or register.
+     */
+    public int end() {
+      return offset + quantity;
+    }
+  }
+
+  public interface ModificationListener {
+
+    /**
+     * Called before a {@link Transaction} that modified the process image completes.
+     *
+     * <p>The transaction is read-only by the time listeners are called; it can be used to read
+     * the modified values, but implementations must not block. Transactions on different areas
+     * run concurrently, so implementations must be thread-safe.
+     *
+     * @param tx the {@link Transaction} that made the modifications.
+     * @param modifications the modified ranges, in the order they were made.
+     */
+    void onModifications(Transaction tx, List<Modification> modifications);
+  }
+}
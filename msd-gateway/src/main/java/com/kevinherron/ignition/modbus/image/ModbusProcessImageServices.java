@@ -0,0 +1,302 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.exceptions.ModbusResponseException;
+import com.digitalpetri.modbus.exceptions.UnknownUnitIdException;
+import com.digitalpetri.modbus.pdu.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.pdu.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.pdu.ReadCoilsRequest;
+import com.digitalpetri.modbus.pdu.ReadCoilsResponse;
+import com.digitalpetri.modbus.pdu.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.pdu.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.pdu.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.pdu.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.pdu.ReadWriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadWriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.pdu.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.pdu.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.pdu.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.pdu.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.pdu.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.pdu.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.pdu.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.pdu.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.server.ModbusRequestContext;
+import com.digitalpetri.modbus.server.ModbusServices;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import java.util.Optional;
+
+/**
+ * {@link ModbusServices} that serve all read and write function codes from a {@link
+ * ModbusProcessImage}.
+ *
+ * <p>This is the {@link ModbusProcessImage} equivalent of the library's {@code
+ * ReadWriteModbusServices}: requests are validated the same way, but register and coil data is
+ * copied directly between the PDU and the process image's dense arrays.
+ */
+public abstract class ModbusProcessImageServices implements ModbusServices {
+
+  private static final int MAX_READ_BITS = 2000;
+  private static final int MAX_READ_REGISTERS = 125;
+  private static final int MAX_WRITE_BITS = 1968;
+  private static final int MAX_WRITE_REGISTERS = 123;
+  private static final int MAX_READ_WRITE_REGISTERS = 121;
+
+  /**
+   * Get the {@link ModbusProcessImage} for {@code unitId}.
+   *
+   * @param unitId the unit id from the request.
+   * @return the {@link ModbusProcessImage} for {@code unitId}, or empty if the unit id is unknown.
+   */
+  protected abstract Optional<ModbusProcessImage> getProcessImage(int unitId);
+
+  @Override
+  public ReadCoilsResponse readCoils(
+      ModbusRequestContext context, int unitId, ReadCoilsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(FunctionCode.READ_COILS, request.quantity(), MAX_READ_BITS);
+    checkAddress(FunctionCode.READ_COILS, request.address(), request.quantity());
+
+    byte[] coils =
+        processImage.get(
+            ModbusArea.COILS,
+            tx -> tx.readBits(ModbusArea.COILS, request.address(), request.quantity()));
+
+    return new ReadCoilsResponse(coils);
+  }
+
+  @Override
+  public ReadDiscreteInputsResponse readDiscreteInputs(
+      ModbusRequestContext context, int unitId, ReadDiscreteInputsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(FunctionCode.READ_DISCRETE_INPUTS, request.quantity(), MAX_READ_BITS);
+    checkAddress(FunctionCode.READ_DISCRETE_INPUTS, request.address(), request.quantity());
+
+    byte[] inputs =
+        processImage.get(
+            ModbusArea.DISCRETE_INPUTS,
+            tx -> tx.readBits(ModbusArea.DISCRETE_INPUTS, request.address(), request.quantity()));
+
+    return new ReadDiscreteInputsResponse(inputs);
+  }
+
+  @Override
+  public ReadHoldingRegistersResponse readHoldingRegisters(
+      ModbusRequestContext context, int unitId, ReadHoldingRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(FunctionCode.READ_HOLDING_REGISTERS, request.quantity(), MAX_READ_REGISTERS);
+    checkAddress(FunctionCode.READ_HOLDING_REGISTERS, request.address(), request.quantity());
+
+    byte[] registers =
+        processImage.get(
+            ModbusArea.HOLDING_REGISTERS,
+            tx ->
+                tx.readRegisters(
+                    ModbusArea.HOLDING_REGISTERS, request.address(), request.quantity()));
+
+    return new ReadHoldingRegistersResponse(registers);
+  }
+
+  @Override
+  public ReadInputRegistersResponse readInputRegisters(
+      ModbusRequestContext context, int unitId, ReadInputRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(FunctionCode.READ_INPUT_REGISTERS, request.quantity(), MAX_READ_REGISTERS);
+    checkAddress(FunctionCode.READ_INPUT_REGISTERS, request.address(), request.quantity());
+
+    byte[] registers =
+        processImage.get(
+            ModbusArea.INPUT_REGISTERS,
+            tx ->
+                tx.readRegisters(
+                    ModbusArea.INPUT_REGISTERS, request.address(), request.quantity()));
+
+    return new ReadInputRegistersResponse(registers);
+  }
+
+  @Override
+  public WriteSingleCoilResponse writeSingleCoil(
+      ModbusRequestContext context, int unitId, WriteSingleCoilRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    int value = request.value();
+    if (value != 0x0000 && value != 0xFF00) {
+      throw new ModbusResponseException(
+          FunctionCode.WRITE_SINGLE_COIL, ExceptionCode.ILLEGAL_DATA_VALUE);
+    }
+    checkAddress(FunctionCode.WRITE_SINGLE_COIL, request.address(), 1);
+
+    processImage.with(
+        ModbusArea.COILS, tx -> tx.writeBit(ModbusArea.COILS, request.address(), value == 0xFF00));
+
+    return new WriteSingleCoilResponse(request.address(), value);
+  }
+
+  @Override
+  public WriteSingleRegisterResponse writeSingleRegister(
+      ModbusRequestContext context, int unitId, WriteSingleRegisterRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkAddress(FunctionCode.WRITE_SINGLE_REGISTER, request.address(), 1);
+
+    processImage.with(
+        ModbusArea.HOLDING_REGISTERS,
+        tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, request.address(), request.value()));
+
+    return new WriteSingleRegisterResponse(request.address(), request.value());
+  }
+
+  @Override
+  public WriteMultipleCoilsResponse writeMultipleCoils(
+      ModbusRequestContext context, int unitId, WriteMultipleCoilsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(FunctionCode.WRITE_MULTIPLE_COILS, request.quantity(), MAX_WRITE_BITS);
+    checkLength(
+        FunctionCode.WRITE_MULTIPLE_COILS, request.values(), (request.quantity() + 7) / 8);
+    checkAddress(FunctionCode.WRITE_MULTIPLE_COILS, request.address(), request.quantity());
+
+    processImage.with(
+        ModbusArea.COILS,
+        tx ->
+            tx.writeBits(
+                ModbusArea.COILS, request.address(), request.quantity(), request.values()));
+
+    return new WriteMultipleCoilsResponse(request.address(), request.quantity());
+  }
+
+  @Override
+  public WriteMultipleRegistersResponse writeMultipleRegisters(
+      ModbusRequestContext context, int unitId, WriteMultipleRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkQuantity(
+        FunctionCode.WRITE_MULTIPLE_REGISTERS, request.quantity(), MAX_WRITE_REGISTERS);
+    checkLength(FunctionCode.WRITE_MULTIPLE_REGISTERS, request.values(), request.quantity() * 2);
+    checkAddress(FunctionCode.WRITE_MULTIPLE_REGISTERS, request.address(), request.quantity());
+
+    processImage.with(
+        ModbusArea.HOLDING_REGISTERS,
+        tx ->
+            tx.writeRegisters(
+                ModbusArea.HOLDING_REGISTERS,
+                request.address(),
+                request.quantity(),
+                request.values()));
+
+    return new WriteMultipleRegistersResponse(request.address(), request.quantity());
+  }
+
+  @Override
+  public MaskWriteRegisterResponse maskWriteRegister(
+      ModbusRequestContext context, int unitId, MaskWriteRegisterRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    checkAddress(FunctionCode.MASK_WRITE_REGISTER, request.address(), 1);
+
+    processImage.with(
+        ModbusArea.HOLDING_REGISTERS,
+        tx -> {
+          int current = tx.readRegister(ModbusArea.HOLDING_REGISTERS, request.address());
+          int andMask = request.andMask();
+          int orMask = request.orMask();
+          int value = (current & andMask) | (orMask & ~andMask);
+          tx.writeRegister(ModbusArea.HOLDING_REGISTERS, request.address(), value);
+        });
+
+    return new MaskWriteRegisterResponse(request.address(), request.andMask(), request.orMask());
+  }
+
+  @Override
+  public ReadWriteMultipleRegistersResponse readWriteMultipleRegisters(
+      ModbusRequestContext context, int unitId, ReadWriteMultipleRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    ModbusProcessImage processImage = processImage(unitId);
+
+    FunctionCode fc = FunctionCode.READ_WRITE_MULTIPLE_REGISTERS;
+    checkQuantity(fc, request.readQuantity(), MAX_READ_REGISTERS);
+    checkQuantity(fc, request.writeQuantity(), MAX_READ_WRITE_REGISTERS);
+    checkLength(fc, request.values(), request.writeQuantity() * 2);
+    checkAddress(fc, request.readAddress(), request.readQuantity());
+    checkAddress(fc, request.writeAddress(), request.writeQuantity());
+
+    var registers = new byte[request.readQuantity() * 2];
+
+    // the write operation is performed before the read
+    processImage.with(
+        ModbusArea.HOLDING_REGISTERS,
+        tx -> {
+          tx.writeRegisters(
+              ModbusArea.HOLDING_REGISTERS,
+              request.writeAddress(),
+              request.writeQuantity(),
+              request.values());
+
+          tx.readRegisters(
+              ModbusArea.HOLDING_REGISTERS,
+              request.readAddress(),
+              request.readQuantity(),
+              registers,
+              0);
+        });
+
+    return new ReadWriteMultipleRegistersResponse(registers);
+  }
+
+  private ModbusProcessImage processImage(int unitId) throws UnknownUnitIdException {
+    return getProcessImage(unitId).orElseThrow(() -> new UnknownUnitIdException(unitId));
+  }
+
+  private static void checkQuantity(FunctionCode functionCode, int quantity, int maxQuantity)
+      throws ModbusResponseException {
+
+    if (quantity < 1 || quantity > maxQuantity) {
+      throw new ModbusResponseException(functionCode, ExceptionCode.ILLEGAL_DATA_VALUE);
+    }
+  }
+
+  /**
+   * Check that a request's values are exactly the {@code length} bytes its quantity calls for.
+   */
+  private static void checkLength(FunctionCode functionCode, byte[] values, int length)
+      throws ModbusResponseException {
+
+    if (values.length != length) {
+      throw new ModbusResponseException(functionCode, ExceptionCode.ILLEGAL_DATA_VALUE);
+    }
+  }
+
+  private static void checkAddress(FunctionCode functionCode, int address, int quantity)
+      throws ModbusResponseException {
+
+    if (address < 0 || address + quantity > 65536) {
+      throw new ModbusResponseException(functionCode, ExceptionCode.ILLEGAL_DATA_ADDRESS);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+
+/** Names and sizes of the files that areas are persisted to. */
+final class PersistenceFiles {
+
+  private PersistenceFiles() {}
+
+  static String filename(ModbusArea area) {
+    return switch (area) {
+      case COILS -> "coils.bin";
+      case DISCRETE_INPUTS -> "discreteInputs.bin";
+      case HOLDING_REGISTERS -> "holdingRegisters.bin";
+      case INPUT_REGISTERS -> "inputRegisters.bin";
+    };
+  }
+
+  /**
+   * @return the size, in bytes, of the file {@code area} is persisted to.
+   */
+  static int fileSize(ModbusArea area) {
+    return switch (area) {
+      case COILS, DISCRETE_INPUTS -> BitAreaFile.HEADER_SIZE + BitAreaFile.DATA_SIZE;
+      case HOLDING_REGISTERS, INPUT_REGISTERS -> RegisterArea.SIZE * 2;
+    };
+  }
+
+  /**
+   * @return the position, in bytes, of the byte holding the bit or the register at {@code offset}
+   *     in the file {@code area} is persisted to.
+   */
+  static long position(ModbusArea area, int offset) {
+    return switch (area) {
+      case COILS, DISCRETE_INPUTS -> BitAreaFile.HEADER_SIZE + offset / 8;
+      case HOLDING_REGISTERS, INPUT_REGISTERS -> offset * 2L;
+    };
+  }
+
+  /**
+   * @return the position, in bytes, immediately after the last byte holding any of the bits or
+   *     registers before {@code end} in the file {@code area} is persisted to.
+   */
+  static long endPosition(ModbusArea area, int end) {
+    return switch (area) {
+      case COILS, DISCRETE_INPUTS -> BitAreaFile.HEADER_SIZE + (end + 7) / 8;
+      case HOLDING_REGISTERS, INPUT_REGISTERS -> end * 2L;
+    };
+  }
+}
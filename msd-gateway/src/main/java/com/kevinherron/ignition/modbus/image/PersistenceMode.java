@@ -0,0 +1,20 @@
+package com.kevinherron.ignition.modbus.image;
+
+/** How a persisted process image is stored in the device folder. */
+public enum PersistenceMode {
+
+  /**
+   * The process image lives on the heap; it's loaded from the persistence files at startup and
+   * modifications are copied back to the files afterward.
+   */
+  FILE,
+
+  /** The persistence files are memory-mapped and used directly as the process image storage. */
+  MEMORY_MAPPED,
+
+  /**
+   * The process image lives on the heap; modifications are appended to a write-ahead log and
+   * periodically checkpointed to the persistence files.
+   */
+  WRITE_AHEAD_LOG
+}
@@ -0,0 +1,31 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.metrics.LatencyHistogram;
+import java.io.IOException;
+
+/** Persists a {@link ModbusProcessImage} to files in a device folder. */
+public interface ProcessImagePersistence {
+
+  /**
+   * Open the persisted {@link ModbusProcessImage}, creating the persistence files if they don't
+   * exist yet, and start persisting modifications made to it.
+   *
+   * @return the persisted {@link ModbusProcessImage}.
+   * @throws IOException if the persistence files could not be opened.
+   */
+  ModbusProcessImage open() throws IOException;
+
+  /** Stop persisting modifications, writing out any that are still outstanding. */
+  void close();
+
+  /**
+   * @return the number of modified bits and registers waiting to be persisted.
+   */
+  long getPendingCount();
+
+  /**
+   * @return a {@link LatencyHistogram} of how long each write of pending modifications to storage
+   *     took.
+   */
+  LatencyHistogram getFlushLatency();
+}
@@ -0,0 +1,49 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.util.Objects;
+
+/**
+ * Storage for a register area (holding registers or input registers) covering the full 65536
+ * address range.
+ */
+interface RegisterArea {
+
+  int SIZE = 65536;
+
+  /**
+   * @return the register at {@code offset} as an unsigned 16-bit value.
+   */
+  int get(int offset);
+
+  void set(int offset, int value);
+
+  /**
+   * Read {@code quantity} registers starting at {@code offset} into {@code dst}, big-endian, 2
+   * bytes per register, starting at {@code dstOffset}.
+   */
+  default void read(int offset, int quantity, byte[] dst, int dstOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(dstOffset, quantity * 2, dst.length);
+
+    for (int i = 0; i < quantity; i++) {
+      int value = get(offset + i);
+      dst[dstOffset + i * 2] = (byte) (value >> 8);
+      dst[dstOffset + i * 2 + 1] = (byte) value;
+    }
+  }
+
+  /**
+   * Write {@code quantity} registers starting at {@code offset} from {@code src}, big-endian, 2
+   * bytes per register, starting at {@code srcOffset}.
+   */
+  default void write(int offset, int quantity, byte[] src, int srcOffset) {
+    Objects.checkFromIndexSize(offset, quantity, SIZE);
+    Objects.checkFromIndexSize(srcOffset, quantity * 2, src.length);
+
+    for (int i = 0; i < quantity; i++) {
+      int high = src[srcOffset + i * 2] & 0xFF;
+      int low = src[srcOffset + i * 2 + 1] & 0xFF;
+      set(offset + i, (high << 8) | low);
+    }
+  }
+}
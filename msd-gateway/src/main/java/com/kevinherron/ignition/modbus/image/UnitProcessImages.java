@@ -0,0 +1,118 @@
+package com.kevinherron.ignition.modbus.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Independent process images for each Modbus unit ID.
+ *
+ * <p>A unit ID's process image, and its persistence if any, is only created the first time it's
+ * accessed, so memory is only spent on unit IDs that are actually used. Persistences are opened
+ * outside of the map's own locking, since opening one can read its files from storage; process
+ * images that already exist are returned without locking while another is being created.
+ */
+public class UnitProcessImages {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Map<Integer, UnitProcessImage> processImages = new ConcurrentHashMap<>();
+
+  private final @Nullable IntFunction<ProcessImagePersistence> persistenceFactory;
+
+  /**
+   * @param persistenceFactory creates the {@link ProcessImagePersistence} for a unit ID, or
+   *     {@code null} if process images aren't persisted.
+   */
+  public UnitProcessImages(@Nullable IntFunction<ProcessImagePersistence> persistenceFactory) {
+    this.persistenceFactory = persistenceFactory;
+  }
+
+  /**
+   * Get the process image for {@code unitId}, creating it if this is the first access.
+   *
+   * @param unitId the unit ID.
+   * @return the {@link ModbusProcessImage} for {@code unitId}.
+   */
+  public ModbusProcessImage get(int unitId) {
+    UnitProcessImage p = processImages.get(unitId);
+    if (p == null) {
+      p = create(unitId);
+    }
+    return p.processImage;
+  }
+
+  /**
+   * @return the number of process images created so far.
+   */
+  public int size() {
+    return processImages.size();
+  }
+
+  /**
+   * @return the {@link ProcessImagePersistence} of every persisted process image created so far.
+   */
+  public List<ProcessImagePersistence> persistences() {
+    var persistences = new ArrayList<ProcessImagePersistence>();
+    for (UnitProcessImage p : processImages.values()) {
+      if (p.persistence != null) {
+        persistences.add(p.persistence);
+      }
+    }
+    return persistences;
+  }
+
+  /** Close the persistence of every process image created so far. */
+  public synchronized void close() {
+    for (UnitProcessImage p : processImages.values()) {
+      if (p.persistence != null) {
+        p.persistence.close();
+      }
+    }
+    processImages.clear();
+  }
+
+  /**
+   * Create the process image for {@code unitId}, unless another thread created it first.
+   *
+   * <p>If its persistence can't be opened, the persistence is closed and the unit ID gets a
+   * process image that isn't persisted.
+   */
+  private synchronized UnitProcessImage create(int unitId) {
+    UnitProcessImage p = processImages.get(unitId);
+    if (p != null) {
+      return p;
+    }
+
+    logger.debug("Creating process image for unit ID {}", unitId);
+
+    if (persistenceFactory != null) {
+      ProcessImagePersistence persistence = persistenceFactory.apply(unitId);
+
+      try {
+        p = new UnitProcessImage(persistence.open(), persistence);
+      } catch (IOException e) {
+        logger.error("Error opening persisted process image for unit ID {}", unitId, e);
+
+        persistence.close();
+      }
+    }
+
+    if (p == null) {
+      p = new UnitProcessImage(new ModbusProcessImage(), null);
+    }
+
+    processImages.put(unitId, p);
+
+    return p;
+  }
+
+  private record UnitProcessImage(
+      ModbusProcessImage processImage, @Nullable ProcessImagePersistence persistence) {}
+}
@@ -0,0 +1,447 @@
+package com.kevinherron.ignition.modbus.image;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import com.kevinherron.ignition.modbus.image.AreaFiles.PendingFileWrite;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Modification;
+import com.kevinherron.ignition.modbus.image.ModbusProcessImage.Transaction;
+import com.kevinherron.ignition.modbus.metrics.LatencyHistogram;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import org.eclipse.milo.opcua.stack.core.util.ExecutionQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PersistenceMode#WRITE_AHEAD_LOG} persistence: the process image lives on the heap and
+ * every modifying transaction is appended to a write-ahead log before the persistence files are
+ * updated.
+ *
+ * <p>Each transaction becomes one checksummed log record holding the new values of everything it
+ * modified, so a multi-register value is either replayed completely or not at all. Records are
+ * group committed: while one batch is being written and synced, new records accumulate and go out
+ * together in the next batch with a single sync.
+ *
+ * <p>Every checkpoint interval the persistence files are brought up to date from the process
+ * image, synced, and the log is truncated. When opened, the persistence files are loaded and any
+ * complete records in the log are replayed on top of them; a torn record at the end of the log is
+ * discarded.
+ */
+public class WalPersistence implements ProcessImagePersistence {
+
+  static final String WAL_FILENAME = "processImage.wal";
+
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  /** The size of the area, offset, and quantity preceding the values of each part of a record. */
+  private static final int PART_HEADER_SIZE = 9;
+
+  private static final ModbusArea[] AREAS = ModbusArea.values();
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final ModificationListener modificationListener = new ModificationListener();
+
+  private final Object pendingLock = new Object();
+  private ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+
+  /** The bits and registers modified by {@link #pendingRecords}; guarded by pendingLock. */
+  private long pendingCount;
+
+  private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+  private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+
+  private ModbusProcessImage processImage;
+  private FileChannel walChannel;
+  private long walPosition;
+  private ScheduledFuture<?> checkpointFuture;
+
+  private final AreaFiles files;
+
+  private final Path folderPath;
+  private final long checkpointIntervalMillis;
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+  private final ExecutionQueue commitQueue;
+
+  /**
+   * @param folderPath the folder the persistence files and log are stored in.
+   * @param checkpointIntervalMillis how often, in milliseconds, the persistence files are updated
+   *     and the log truncated; at least {@code 1}.
+   * @param scheduler the {@link ScheduledExecutorService} checkpoints are scheduled on.
+   * @param executor the {@link Executor} the files are loaded and commits and checkpoints
+   *     are run on.
+   * @throws IllegalArgumentException if {@code checkpointIntervalMillis} is less than {@code 1}.
+   */
+  public WalPersistence(
+      Path folderPath,
+      long checkpointIntervalMillis,
+      ScheduledExecutorService scheduler,
+      Executor executor) {
+
+    if (checkpointIntervalMillis < 1) {
+      throw new IllegalArgumentException("checkpointIntervalMillis: " + checkpointIntervalMillis);
+    }
+
+    this.folderPath = folderPath.toAbsolutePath();
+    this.checkpointIntervalMillis = checkpointIntervalMillis;
+    this.scheduler = scheduler;
+    this.executor = executor;
+
+    files = new AreaFiles(this.folderPath);
+    commitQueue = new ExecutionQueue(executor);
+  }
+
+  @Override
+  public ModbusProcessImage open() throws IOException {
+    Files.createDirectories(folderPath);
+
+    files.open();
+
+    Map<ModbusArea, byte[]> contents = files.read(executor);
+
+    walChannel =
+        FileChannel.open(
+            folderPath.resolve(WAL_FILENAME),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+    ByteBuffer wal = ByteBuffer.allocate((int) walChannel.size());
+    while (wal.hasRemaining()) {
+      if (walChannel.read(wal, wal.position()) < 0) {
+        break;
+      }
+    }
+    wal.flip();
+
+    processImage = new ModbusProcessImage();
+    processImage.with(
+        tx -> {
+          files.load(tx, contents);
+          walPosition = replay(tx, wal);
+        });
+
+    // drop any torn or corrupt tail and append after the replayed records, so if the checkpoint
+    // below fails and the log isn't truncated, new records can't be followed by older ones
+    walChannel.truncate(walPosition);
+    walChannel.force(true);
+
+    // write anything replayed to the persistence files and start over with an empty log
+    checkpoint();
+
+    processImage.addModificationListener(modificationListener);
+
+    checkpointFuture =
+        scheduler.scheduleWithFixedDelay(
+            () -> commitQueue.submit(this::checkpoint),
+            checkpointIntervalMillis,
+            checkpointIntervalMillis,
+            TimeUnit.MILLISECONDS);
+
+    return processImage;
+  }
+
+  @Override
+  public void close() {
+    if (checkpointFuture != null) {
+      checkpointFuture.cancel(false);
+      checkpointFuture = null;
+    }
+
+    if (processImage != null) {
+      processImage.removeModificationListener(modificationListener);
+
+      checkpoint();
+    }
+
+    files.close();
+
+    if (walChannel != null) {
+      try {
+        walChannel.close();
+      } catch (IOException e) {
+        logger.error("Error closing {}", WAL_FILENAME, e);
+      }
+    }
+  }
+
+  @Override
+  public long getPendingCount() {
+    synchronized (pendingLock) {
+      return pendingCount;
+    }
+  }
+
+  @Override
+  public LatencyHistogram getFlushLatency() {
+    return commitLatency;
+  }
+
+  /**
+   * Replay every complete record in {@code wal}, stopping at the first torn or corrupt one.
+   *
+   * @param tx the {@link Transaction} to replay the records in.
+   * @param wal the contents of the log.
+   * @return the position in the log just after the last record replayed.
+   */
+  private int replay(Transaction tx, ByteBuffer wal) {
+    int records = 0;
+    var crc = new CRC32();
+
+    while (wal.remaining() >= RECORD_HEADER_SIZE) {
+      int start = wal.position();
+      int length = wal.getInt();
+      int checksum = wal.getInt();
+
+      if (length < 0 || length > wal.remaining()) {
+        wal.position(start);
+        break;
+      }
+
+      ByteBuffer payload = wal.slice().limit(length);
+      crc.reset();
+      crc.update(payload.duplicate());
+
+      if ((int) crc.getValue() != checksum) {
+        wal.position(start);
+        break;
+      }
+
+      List<RecordPart> parts;
+      try {
+        parts = decodeRecord(payload);
+      } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+        logger.warn("Error replaying {} record at position {}", WAL_FILENAME, start, e);
+        wal.position(start);
+        break;
+      }
+
+      files.markDirty(applyRecord(tx, parts));
+
+      wal.position(start + RECORD_HEADER_SIZE + length);
+      records++;
+    }
+
+    if (wal.hasRemaining()) {
+      logger.warn(
+          "Discarding {} bytes of incomplete records at the end of {}",
+          wal.remaining(),
+          WAL_FILENAME);
+    }
+
+    logger.debug("Replayed {} records from {}", records, WAL_FILENAME);
+
+    return wal.position();
+  }
+
+  /**
+   * Decode every part of a record and check it against the bounds of the process image, so a
+   * malformed record is rejected before any of it is applied.
+   *
+   * @param payload the record, without its header.
+   * @return the decoded parts.
+   * @throws BufferUnderflowException if the record ends early.
+   * @throws IllegalArgumentException if the number of parts doesn't match the record's length.
+   * @throws IndexOutOfBoundsException if a part is in an unknown area or out of bounds.
+   */
+  private static List<RecordPart> decodeRecord(ByteBuffer payload) {
+    int count = payload.getInt();
+    if (count < 0 || count > payload.remaining() / PART_HEADER_SIZE) {
+      throw new IllegalArgumentException("count: " + count);
+    }
+
+    var parts = new ArrayList<RecordPart>(count);
+
+    for (int i = 0; i < count; i++) {
+      ModbusArea area = AREAS[Objects.checkIndex(payload.get(), AREAS.length)];
+      int offset = payload.getInt();
+      int quantity = payload.getInt();
+
+      byte[] values =
+          switch (area) {
+            case COILS, DISCRETE_INPUTS -> {
+              Objects.checkFromIndexSize(offset, quantity, BitArea.SIZE);
+              yield new byte[(quantity + 7) / 8];
+            }
+            case HOLDING_REGISTERS, INPUT_REGISTERS -> {
+              Objects.checkFromIndexSize(offset, quantity, RegisterArea.SIZE);
+              yield new byte[quantity * 2];
+            }
+          };
+      payload.get(values);
+
+      parts.add(new RecordPart(new Modification(area, offset, quantity), values));
+    }
+
+    if (payload.hasRemaining()) {
+      throw new IllegalArgumentException("trailing bytes: " + payload.remaining());
+    }
+
+    return parts;
+  }
+
+  private static List<Modification> applyRecord(Transaction tx, List<RecordPart> parts) {
+    var modifications = new ArrayList<Modification>(parts.size());
+
+    for (RecordPart part : parts) {
+      Modification m = part.modification();
+
+      switch (m.area()) {
+        case COILS, DISCRETE_INPUTS ->
+            tx.writeBits(m.area(), m.offset(), m.quantity(), part.values());
+        case HOLDING_REGISTERS, INPUT_REGISTERS ->
+            tx.writeRegisters(m.area(), m.offset(), m.quantity(), part.values());
+      }
+
+      modifications.add(m);
+    }
+
+    return modifications;
+  }
+
+  /**
+   * Encode the new values of everything modified in a transaction as one log record.
+   *
+   * @param tx the {@link Transaction} that made the modifications.
+   * @param modifications the modified ranges.
+   * @return the encoded record, header included.
+   */
+  private static byte[] encodeRecord(Transaction tx, List<Modification> modifications) {
+    var values = new ArrayList<byte[]>(modifications.size());
+    int length = Integer.BYTES;
+
+    for (Modification m : modifications) {
+      byte[] bs =
+          switch (m.area()) {
+            case COILS, DISCRETE_INPUTS -> tx.readBits(m.area(), m.offset(), m.quantity());
+            case HOLDING_REGISTERS, INPUT_REGISTERS ->
+                tx.readRegisters(m.area(), m.offset(), m.quantity());
+          };
+      values.add(bs);
+      length += PART_HEADER_SIZE + bs.length;
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+    record.position(RECORD_HEADER_SIZE);
+    record.putInt(modifications.size());
+    for (int i = 0; i < modifications.size(); i++) {
+      Modification m = modifications.get(i);
+      record.put((byte) m.area().ordinal());
+      record.putInt(m.offset());
+      record.putInt(m.quantity());
+      record.put(values.get(i));
+    }
+
+    var crc = new CRC32();
+    crc.update(record.array(), RECORD_HEADER_SIZE, length);
+    record.putInt(0, length);
+    record.putInt(4, (int) crc.getValue());
+
+    return record.array();
+  }
+
+  private byte[] takePendingRecords() {
+    synchronized (pendingLock) {
+      byte[] records = pendingRecords.toByteArray();
+      pendingRecords = new ByteArrayOutputStream();
+      pendingCount = 0;
+      return records;
+    }
+  }
+
+  /** Append every pending record to the log and sync it, as one group commit. */
+  private synchronized void commit() {
+    commitScheduled.set(false);
+
+    try {
+      append(takePendingRecords());
+    } catch (IOException e) {
+      logger.error("Error writing {}", WAL_FILENAME, e);
+    }
+  }
+
+  private void append(byte[] records) throws IOException {
+    if (records.length == 0) {
+      return;
+    }
+
+    long startTime = System.nanoTime();
+
+    ByteBuffer buffer = ByteBuffer.wrap(records);
+    while (buffer.hasRemaining()) {
+      walPosition += walChannel.write(buffer, walPosition);
+    }
+    walChannel.force(false);
+
+    commitLatency.record(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Bring the persistence files up to date with the process image and truncate the log.
+   *
+   * <p>The pending records and the dirty ranges are taken in the same read transaction, so the
+   * values written to the persistence files reflect exactly the records committed before the log
+   * is truncated. Records are full values, so replaying any of them again over a partially written
+   * checkpoint is harmless.
+   */
+  private synchronized void checkpoint() {
+    var checkpoint =
+        processImage.get(tx -> new Checkpoint(takePendingRecords(), files.copyDirty(tx)));
+
+    try {
+      append(checkpoint.records);
+
+      files.write(checkpoint.writes);
+      files.force();
+
+      walChannel.truncate(0);
+      walChannel.force(true);
+      walPosition = 0;
+    } catch (IOException e) {
+      logger.error("Error writing checkpoint", e);
+    }
+  }
+
+  private class ModificationListener implements ModbusProcessImage.ModificationListener {
+
+    @Override
+    public void onModifications(Transaction tx, List<Modification> modifications) {
+      byte[] record = encodeRecord(tx, modifications);
+
+      synchronized (pendingLock) {
+        pendingRecords.writeBytes(record);
+        for (Modification m : modifications) {
+          pendingCount += m.quantity();
+        }
+      }
+
+      files.markDirty(modifications);
+
+      if (commitScheduled.compareAndSet(false, true)) {
+        commitQueue.submit(WalPersistence.this::commit);
+      }
+    }
+  }
+
+  /** The new values of one modified range, as decoded from a log record. */
+  private record RecordPart(Modification modification, byte[] values) {}
+
+  private record Checkpoint(byte[] records, List<PendingFileWrite> writes) {}
+}
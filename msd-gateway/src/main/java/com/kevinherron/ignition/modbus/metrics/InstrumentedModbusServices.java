@@ -0,0 +1,258 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.exceptions.ModbusResponseException;
+import com.digitalpetri.modbus.exceptions.UnknownUnitIdException;
+import com.digitalpetri.modbus.pdu.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.pdu.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.pdu.ReadCoilsRequest;
+import com.digitalpetri.modbus.pdu.ReadCoilsResponse;
+import com.digitalpetri.modbus.pdu.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.pdu.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.pdu.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.pdu.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.pdu.ReadWriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.pdu.ReadWriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.pdu.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.pdu.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.pdu.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.pdu.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.pdu.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.pdu.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.pdu.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.pdu.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.server.ModbusRequestContext;
+import com.digitalpetri.modbus.server.ModbusServices;
+
+/**
+ * {@link ModbusServices} that serve requests with another {@link ModbusServices} and record each
+ * request to {@link ModbusServerMetrics}: its function code, client, unit ID, quantity, how long it
+ * took, and whether it was answered with an exception response.
+ *
+ * <p>Recording a request doesn't allocate, so instrumenting the services doesn't add garbage to
+ * every request a busy master makes.
+ */
+public final class InstrumentedModbusServices implements ModbusServices {
+
+  private final ModbusServices services;
+  private final ModbusServerMetrics metrics;
+
+  /**
+   * @param services the {@link ModbusServices} that serve requests.
+   * @param metrics the {@link ModbusServerMetrics} requests are recorded to.
+   */
+  public InstrumentedModbusServices(ModbusServices services, ModbusServerMetrics metrics) {
+    this.services = services;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ReadCoilsResponse readCoils(
+      ModbusRequestContext context, int unitId, ReadCoilsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ReadCoilsResponse response = services.readCoils(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.READ_COILS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public ReadDiscreteInputsResponse readDiscreteInputs(
+      ModbusRequestContext context, int unitId, ReadDiscreteInputsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ReadDiscreteInputsResponse response = services.readDiscreteInputs(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.READ_DISCRETE_INPUTS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public ReadHoldingRegistersResponse readHoldingRegisters(
+      ModbusRequestContext context, int unitId, ReadHoldingRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ReadHoldingRegistersResponse response =
+          services.readHoldingRegisters(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.READ_HOLDING_REGISTERS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public ReadInputRegistersResponse readInputRegisters(
+      ModbusRequestContext context, int unitId, ReadInputRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ReadInputRegistersResponse response = services.readInputRegisters(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.READ_INPUT_REGISTERS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public WriteSingleCoilResponse writeSingleCoil(
+      ModbusRequestContext context, int unitId, WriteSingleCoilRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      WriteSingleCoilResponse response = services.writeSingleCoil(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.WRITE_SINGLE_COIL, context, unitId, 1, System.nanoTime() - start, error);
+    }
+  }
+
+  @Override
+  public WriteSingleRegisterResponse writeSingleRegister(
+      ModbusRequestContext context, int unitId, WriteSingleRegisterRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      WriteSingleRegisterResponse response = services.writeSingleRegister(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.WRITE_SINGLE_REGISTER, context, unitId, 1, System.nanoTime() - start, error);
+    }
+  }
+
+  @Override
+  public WriteMultipleCoilsResponse writeMultipleCoils(
+      ModbusRequestContext context, int unitId, WriteMultipleCoilsRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      WriteMultipleCoilsResponse response = services.writeMultipleCoils(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.WRITE_MULTIPLE_COILS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public WriteMultipleRegistersResponse writeMultipleRegisters(
+      ModbusRequestContext context, int unitId, WriteMultipleRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      WriteMultipleRegistersResponse response =
+          services.writeMultipleRegisters(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.WRITE_MULTIPLE_REGISTERS,
+          context,
+          unitId,
+          request.quantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+
+  @Override
+  public MaskWriteRegisterResponse maskWriteRegister(
+      ModbusRequestContext context, int unitId, MaskWriteRegisterRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      MaskWriteRegisterResponse response = services.maskWriteRegister(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.MASK_WRITE_REGISTER, context, unitId, 1, System.nanoTime() - start, error);
+    }
+  }
+
+  @Override
+  public ReadWriteMultipleRegistersResponse readWriteMultipleRegisters(
+      ModbusRequestContext context, int unitId, ReadWriteMultipleRegistersRequest request)
+      throws ModbusResponseException, UnknownUnitIdException {
+
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      ReadWriteMultipleRegistersResponse response =
+          services.readWriteMultipleRegisters(context, unitId, request);
+      error = false;
+      return response;
+    } finally {
+      metrics.record(
+          FunctionCode.READ_WRITE_MULTIPLE_REGISTERS,
+          context,
+          unitId,
+          request.readQuantity() + request.writeQuantity(),
+          System.nanoTime() - start,
+          error);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in nanoseconds, that can be recorded to concurrently without locking
+ * or allocating.
+ *
+ * <p>Buckets are laid out the way HdrHistogram lays them out: latencies below 64 ns get a bucket
+ * each, and each power of two above that is split into {@value #SUB_BUCKETS} equal buckets, so any
+ * recorded latency is reported as the highest in its bucket: never below its true value, and at
+ * most 1/32, about 3%, above it. Latencies above {@link #MAX_LATENCY} are recorded as {@link
+ * #MAX_LATENCY}.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The largest latency, in nanoseconds, recorded without being clamped; about 68 seconds. */
+  public static final long MAX_LATENCY = (1L << 36) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(index(MAX_LATENCY) + 1);
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency, in nanoseconds.
+   */
+  public void record(long nanos) {
+    long latency = Math.min(Math.max(nanos, 0L), MAX_LATENCY);
+
+    counts.incrementAndGet(index(latency));
+    count.incrementAndGet();
+    total.addAndGet(latency);
+    max.accumulateAndGet(latency, Math::max);
+  }
+
+  /**
+   * @return the number of latencies recorded.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the sum of every latency recorded, in nanoseconds.
+   */
+  public long getTotal() {
+    return total.get();
+  }
+
+  /**
+   * @return the mean latency recorded, in nanoseconds, or {@code 0} if none have been.
+   */
+  public long getMean() {
+    long n = count.get();
+    return n > 0 ? total.get() / n : 0L;
+  }
+
+  /**
+   * @return the largest latency recorded, in nanoseconds.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Get the latency at or below which {@code percentile} percent of recorded latencies fall.
+   *
+   * <p>Latencies recorded while this is being computed may or may not be counted.
+   *
+   * @param percentile the percentile, from {@code 0} to {@code 100}.
+   * @return the latency at {@code percentile}, in nanoseconds, or {@code 0} if none have been
+   *     recorded.
+   */
+  public long getPercentile(double percentile) {
+    long n = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      n += counts.get(i);
+    }
+    if (n == 0) {
+      return 0L;
+    }
+
+    long rank = Math.max(1L, (long) Math.ceil(n * Math.min(percentile, 100.0) / 100.0));
+
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  /**
+   * @return the index of the bucket {@code latency} is counted in.
+   */
+  static int index(long latency) {
+    if (latency < 2 * SUB_BUCKETS) {
+      return (int) latency;
+    }
+
+    // the top SUB_BUCKET_BITS + 1 bits of latency, and how far they were shifted to get there
+    int shift = 63 - Long.numberOfLeadingZeros(latency) - SUB_BUCKET_BITS;
+
+    return shift * SUB_BUCKETS + (int) (latency >>> shift);
+  }
+
+  /**
+   * @return the largest latency counted in bucket {@code index}.
+   */
+  static long highestEquivalent(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    long top = index % SUB_BUCKETS + SUB_BUCKETS;
+
+    return ((top + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,193 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.server.ModbusRequestContext;
+import com.digitalpetri.modbus.server.ModbusRequestContext.ModbusTcpRequestContext;
+import com.kevinherron.ignition.modbus.metrics.RequestMetrics.RequestStats;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@link RequestMetrics} for the requests served by a Modbus server, in total, per function code,
+ * and per unit ID.
+ *
+ * <p>Every {@link RequestMetrics} a request is recorded to exists before it's recorded, except the
+ * first for each unit ID, so recording a request doesn't allocate.
+ *
+ * <p>The Modbus transport doesn't report connections, so clients are counted by the remote address
+ * of their requests: a client is connected if it made a request in the last {@link
+ * #CLIENT_TIMEOUT} seconds.
+ */
+public final class ModbusServerMetrics implements ModbusServerMetricsMXBean {
+
+  /** How long, in seconds, a client is counted as connected after its last request. */
+  public static final long CLIENT_TIMEOUT = 60;
+
+  private static final int UNIT_IDS = 256;
+
+  private final RequestMetrics total = new RequestMetrics();
+
+  private final Map<FunctionCode, RequestMetrics> functionCodes = new EnumMap<>(FunctionCode.class);
+
+  private final AtomicReferenceArray<RequestMetrics> unitIds =
+      new AtomicReferenceArray<>(UNIT_IDS);
+
+  /** When each client last made a request, from {@link System#nanoTime()}. */
+  private final Map<SocketAddress, AtomicLong> clients = new ConcurrentHashMap<>();
+
+  private @Nullable ObjectName objectName;
+
+  public ModbusServerMetrics() {
+    for (FunctionCode functionCode : FunctionCode.values()) {
+      functionCodes.put(functionCode, new RequestMetrics());
+    }
+  }
+
+  /**
+   * Record a request.
+   *
+   * @param functionCode the request's {@link FunctionCode}.
+   * @param context the request's {@link ModbusRequestContext}.
+   * @param unitId the request's unit ID.
+   * @param quantity the number of coils, inputs, or registers the request read or wrote.
+   * @param nanos how long the request took to serve, in nanoseconds.
+   * @param error {@code true} if the request was answered with an exception response.
+   */
+  public void record(
+      FunctionCode functionCode,
+      ModbusRequestContext context,
+      int unitId,
+      int quantity,
+      long nanos,
+      boolean error) {
+
+    if (context instanceof ModbusTcpRequestContext tcpContext) {
+      client(tcpContext.remoteAddress());
+    }
+
+    total.record(quantity, nanos, error);
+    functionCodes.get(functionCode).record(quantity, nanos, error);
+    unit(unitId).record(quantity, nanos, error);
+  }
+
+  /**
+   * @return the {@link RequestMetrics} for every request served.
+   */
+  public RequestMetrics total() {
+    return total;
+  }
+
+  /**
+   * @param functionCode a {@link FunctionCode}.
+   * @return the {@link RequestMetrics} for requests with {@code functionCode}.
+   */
+  public RequestMetrics functionCode(FunctionCode functionCode) {
+    return functionCodes.get(functionCode);
+  }
+
+  @Override
+  public int getClientCount() {
+    long now = System.nanoTime();
+    prune(now);
+
+    return clients.size();
+  }
+
+  @Override
+  public RequestStats getTotal() {
+    return total.snapshot();
+  }
+
+  @Override
+  public Map<String, RequestStats> getFunctionCodes() {
+    var stats = new TreeMap<String, RequestStats>();
+    functionCodes.forEach(
+        (functionCode, metrics) -> {
+          if (metrics.getRequests() > 0) {
+            stats.put(functionCode.name(), metrics.snapshot());
+          }
+        });
+    return stats;
+  }
+
+  @Override
+  public Map<Integer, RequestStats> getUnitIds() {
+    var stats = new TreeMap<Integer, RequestStats>();
+    for (int unitId = 0; unitId < UNIT_IDS; unitId++) {
+      RequestMetrics metrics = unitIds.get(unitId);
+      if (metrics != null) {
+        stats.put(unitId, metrics.snapshot());
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Register these metrics with the platform MBean server, under {@code
+   * com.kevinherron.ignition.modbus:type=ModbusServer,name=<deviceName>}.
+   *
+   * @param deviceName the name of the device serving the requests.
+   * @throws JMException if the metrics can't be registered.
+   */
+  public synchronized void register(String deviceName) throws JMException {
+    var name =
+        new ObjectName(
+            "com.kevinherron.ignition.modbus:type=ModbusServer,name="
+                + ObjectName.quote(deviceName));
+
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    objectName = name;
+  }
+
+  /**
+   * Unregister these metrics from the platform MBean server, if they were registered.
+   *
+   * @throws JMException if the metrics can't be unregistered.
+   */
+  public synchronized void unregister() throws JMException {
+    if (objectName != null) {
+      ObjectName name = objectName;
+      objectName = null;
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+  }
+
+  private void client(SocketAddress address) {
+    long now = System.nanoTime();
+
+    AtomicLong lastRequest = clients.get(address);
+    if (lastRequest == null) {
+      // a new connection; forget the clients that have gone quiet so the map stays small
+      prune(now);
+      lastRequest = clients.computeIfAbsent(address, a -> new AtomicLong());
+    }
+    lastRequest.set(now);
+  }
+
+  private void prune(long now) {
+    long timeout = TimeUnit.SECONDS.toNanos(CLIENT_TIMEOUT);
+
+    clients.values().removeIf(lastRequest -> now - lastRequest.get() > timeout);
+  }
+
+  private RequestMetrics unit(int unitId) {
+    int index = unitId & (UNIT_IDS - 1);
+
+    RequestMetrics metrics = unitIds.get(index);
+    if (metrics == null) {
+      unitIds.compareAndSet(index, null, new RequestMetrics());
+      metrics = unitIds.get(index);
+    }
+    return metrics;
+  }
+}
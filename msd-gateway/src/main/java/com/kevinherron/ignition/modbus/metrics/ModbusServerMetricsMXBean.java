@@ -0,0 +1,29 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import com.kevinherron.ignition.modbus.metrics.RequestMetrics.RequestStats;
+import java.util.Map;
+
+/** The JMX view of {@link ModbusServerMetrics}, for scraping by a JMX exporter. */
+public interface ModbusServerMetricsMXBean {
+
+  /**
+   * @return the number of clients that made a request in the last {@link
+   *     ModbusServerMetrics#CLIENT_TIMEOUT} seconds.
+   */
+  int getClientCount();
+
+  /**
+   * @return stats for every request served.
+   */
+  RequestStats getTotal();
+
+  /**
+   * @return stats for the requests served, keyed by function code name.
+   */
+  Map<String, RequestStats> getFunctionCodes();
+
+  /**
+   * @return stats for the requests served, keyed by unit ID.
+   */
+  Map<Integer, RequestStats> getUnitIds();
+}
@@ -0,0 +1,96 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts and latencies of the Modbus requests served for one function code or unit ID. */
+public final class RequestMetrics {
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder quantity = new LongAdder();
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * Record a request.
+   *
+   * @param quantity the number of coils, inputs, or registers the request read or wrote.
+   * @param nanos how long the request took to serve, in nanoseconds.
+   * @param error {@code true} if the request was answered with an exception response.
+   */
+  void record(int quantity, long nanos, boolean error) {
+    requests.increment();
+    if (error) {
+      errors.increment();
+    }
+    this.quantity.add(quantity);
+    latency.record(nanos);
+  }
+
+  /**
+   * @return the number of requests served.
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return the number of requests answered with an exception response.
+   */
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * @return the total number of coils, inputs, or registers read or written.
+   */
+  public long getQuantity() {
+    return quantity.sum();
+  }
+
+  /**
+   * @return the {@link LatencyHistogram} of how long requests took to serve.
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return a snapshot of these metrics, with latencies in microseconds.
+   */
+  public RequestStats snapshot() {
+    return new RequestStats(
+        getRequests(),
+        getErrors(),
+        getQuantity(),
+        micros(latency.getMean()),
+        micros(latency.getPercentile(50.0)),
+        micros(latency.getPercentile(99.0)),
+        micros(latency.getMax()));
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * A snapshot of {@link RequestMetrics}, as exposed over JMX.
+   *
+   * @param requests the number of requests served.
+   * @param errors the number of requests answered with an exception response.
+   * @param quantity the total number of coils, inputs, or registers read or written.
+   * @param meanMicros the mean latency, in microseconds.
+   * @param p50Micros the median latency, in microseconds.
+   * @param p99Micros the 99th percentile latency, in microseconds.
+   * @param maxMicros the largest latency, in microseconds.
+   */
+  public record RequestStats(
+      long requests,
+      long errors,
+      long quantity,
+      long meanMicros,
+      long p50Micros,
+      long p99Micros,
+      long maxMicros) {}
+}
@@ -0,0 +1,133 @@
+package com.kevinherron.ignition.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ArrayAddress;
+import com.kevinherron.ignition.modbus.address.ModbusAddressParser;
+import java.util.List;
+import org.eclipse.milo.opcua.sdk.core.NumericRange;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class ArraySliceTest {
+
+  @Test
+  void fullSelectionIsOneRun() throws Exception {
+    ArraySlice slice = slice("HR<int32[3][4][5]>100", "0:2,0:3,0:4", false);
+
+    assertRuns(slice, new int[] {100}, 60);
+  }
+
+  @Test
+  void innerDimensionsSelectedInFullMergeIntoRuns() throws Exception {
+    // rows 1 and 2, columns 1 and 2 of every plane; each run is two columns of five elements
+    ArraySlice slice = slice("HR<int32[3][4][5]>100", "1:2,1:2,0:4", false);
+
+    assertRuns(slice, new int[] {100 + 25 * 2, 100 + 45 * 2}, 10);
+  }
+
+  @Test
+  void partialInnerDimensionGivesRunPerOuterIndex() throws Exception {
+    ArraySlice slice = slice("HR<int32[3][4][5]>100", "0:2,1,2", false);
+
+    assertRuns(slice, new int[] {100 + 7 * 2, 100 + 27 * 2, 100 + 47 * 2}, 1);
+  }
+
+  @Test
+  void bitRunsAreOneBitPerElement() throws Exception {
+    ArraySlice slice = slice("C<bool[4][8]>0", "1:2,3:5", false);
+
+    assertRuns(slice, new int[] {11, 19}, 3);
+  }
+
+  @Test
+  void joinsAndSplitsRunsInRowMajorOrder() throws Exception {
+    ArraySlice slice = slice("HR<int16[3][4]>0", "0:2,1:2", true);
+
+    Object value =
+        slice.join(new Object[] {new Short[] {1, 2}, new Short[] {3, 4}, new Short[] {5, 6}});
+
+    assertArrayEquals(new Short[][] {{1, 2}, {3, 4}, {5, 6}}, (Object[]) value);
+
+    Object[] runValues = slice.split(value);
+
+    assertArrayEquals(
+        new Object[] {new Short[] {1, 2}, new Short[] {3, 4}, new Short[] {5, 6}}, runValues);
+  }
+
+  @Test
+  void readPastEndIsTruncated() throws Exception {
+    ArraySlice slice = slice("HR<int16[10]>0", "8:20", false);
+
+    assertRuns(slice, new int[] {8}, 2);
+    assertArrayEquals(
+        new Short[] {8, 9}, (Object[]) slice.join(new Object[] {new Short[] {8, 9}}));
+
+    ArraySlice matrix = slice("HR<int16[3][4]>0", "2:5,3:9", false);
+
+    assertRuns(matrix, new int[] {11}, 1);
+  }
+
+  @Test
+  void readStartingPastEndHasNoData() {
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[10]>0", "10:12", false));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[3][4]>0", "0,4", false));
+  }
+
+  @Test
+  void writePastEndHasNoData() {
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[10]>0", "8:10", true));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[10]>0", "10", true));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[3][4]>0", "2:3,0", true));
+  }
+
+  @Test
+  void scalarHasNoData() {
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16>0", "0", false));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16>0", "0", true));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("C1", "0:1", false));
+  }
+
+  @Test
+  void wrongDimensionCountHasNoData() {
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[10]>0", "0,0", false));
+    assertStatus(StatusCodes.Bad_IndexRangeNoData, () -> slice("HR<int16[3][4]>0", "0:1", true));
+  }
+
+  @Test
+  void splitRejectsValueOfWrongShape() throws Exception {
+    ArraySlice slice = slice("HR<int16[3][4]>0", "0:1,1:2", true);
+
+    assertStatus(StatusCodes.Bad_TypeMismatch, () -> slice.split(new Short[] {1, 2, 3, 4}));
+    assertStatus(StatusCodes.Bad_TypeMismatch, () -> slice.split(new Short[][] {{1, 2, 3}}));
+  }
+
+  private static ArraySlice slice(String address, String indexRange, boolean write)
+      throws Exception {
+
+    ModbusAddress parsed = ModbusAddressParser.parse(address);
+
+    return ArraySlice.of(parsed, NumericRange.parse(indexRange), write);
+  }
+
+  private static void assertRuns(ArraySlice slice, int[] offsets, int runLength) {
+    List<ArrayAddress> runs = slice.getRuns();
+
+    assertEquals(offsets.length, runs.size());
+    for (int i = 0; i < offsets.length; i++) {
+      assertEquals(offsets[i], runs.get(i).getOffset(), "run " + i);
+      assertArrayEquals(new int[] {runLength}, runs.get(i).getDimensions());
+    }
+  }
+
+  private static void assertStatus(long statusCode, Executable executable) {
+    UaException e = assertThrows(UaException.class, executable);
+
+    assertEquals(statusCode, e.getStatusCode().getValue());
+  }
+}
@@ -0,0 +1,129 @@
+package com.kevinherron.ignition.modbus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class OffsetIndexTest {
+
+  @Test
+  void findsSpanCrossingPageBoundary() {
+    var index = new OffsetIndex<String>();
+    index.add(62, 4, "a");
+
+    assertEquals(List.of("a"), find(index, 62, 1));
+    assertEquals(List.of("a"), find(index, 63, 1));
+    assertEquals(List.of("a"), find(index, 64, 1));
+    assertEquals(List.of("a"), find(index, 65, 1));
+    assertEquals(List.of(), find(index, 61, 1));
+    assertEquals(List.of(), find(index, 66, 1));
+
+    // reported once although the modification covers both pages
+    assertEquals(List.of("a"), find(index, 0, 128));
+  }
+
+  @Test
+  void clampsEntryAtEndOfArea() {
+    var index = new OffsetIndex<String>();
+    index.add(65534, 4, "a");
+    index.add(65536, 1, "b");
+
+    assertEquals(List.of("a"), find(index, 65535, 1));
+    assertEquals(List.of("a"), find(index, 65535, 10));
+    assertEquals(List.of("a"), find(index, 0, 65536));
+
+    index.remove(65534, 4, "a");
+
+    assertEquals(List.of(), find(index, 65534, 2));
+  }
+
+  @Test
+  void removesOneOfTwoIdenticalSpans() {
+    var index = new OffsetIndex<String>();
+    var a = new String("x");
+    var b = new String("x");
+    index.add(60, 10, a);
+    index.add(60, 10, b);
+
+    index.remove(60, 10, a);
+
+    List<String> found = find(index, 0, 128);
+    assertEquals(1, found.size());
+    assertSame(b, found.get(0));
+  }
+
+  @Test
+  void removesOnlyTheMatchingSpanOfAValue() {
+    var index = new OffsetIndex<String>();
+    index.add(0, 100, "a");
+    index.add(50, 10, "a");
+
+    index.remove(50, 10, "a");
+
+    assertEquals(List.of("a"), find(index, 0, 1));
+    assertEquals(List.of("a"), find(index, 99, 1));
+    assertEquals(List.of("a"), find(index, 55, 1));
+  }
+
+  @Test
+  void findsEachValueOnceAcrossManyPages() {
+    var index = new OffsetIndex<String>();
+    index.add(10, 1, "a");
+    index.add(100, 300, "b");
+    index.add(1000, 1, "c");
+    index.add(1001, 1, "d");
+
+    assertEquals(List.of("a", "b", "c"), find(index, 5, 996));
+    assertEquals(List.of("b"), find(index, 150, 1000 - 150));
+  }
+
+  @Test
+  void agreesWithScan() {
+    var random = new Random(0x4F666673L);
+    var index = new OffsetIndex<Integer>();
+    var spans = new ArrayList<Span>();
+
+    for (int i = 0; i < 5000; i++) {
+      if (!spans.isEmpty() && random.nextInt(4) == 0) {
+        Span span = spans.remove(random.nextInt(spans.size()));
+        index.remove(span.offset(), span.quantity(), span.value());
+      } else {
+        int offset = random.nextInt(4) == 0 ? 65536 - random.nextInt(64) : random.nextInt(4096);
+        int quantity = 1 + random.nextInt(random.nextInt(8) == 0 ? 500 : 8);
+        var span = new Span(offset, quantity, i);
+        spans.add(span);
+        index.add(offset, quantity, span.value());
+      }
+
+      int offset = random.nextInt(2) == 0 ? random.nextInt(4096) : 65536 - random.nextInt(256);
+      int quantity = 1 + random.nextInt(300);
+
+      // both the modification and the spans end at the end of the area
+      int end = Math.min(offset + quantity, 65536);
+      var expected = new ArrayList<Integer>();
+      for (Span span : spans) {
+        if (span.offset() < end && Math.min(span.offset() + span.quantity(), 65536) > offset) {
+
+          expected.add(span.value());
+        }
+      }
+
+      List<Integer> actual = find(index, offset, quantity);
+      actual.sort(null);
+      assertEquals(expected, actual, "offset " + offset + " quantity " + quantity);
+    }
+  }
+
+  private static <T> List<T> find(OffsetIndex<T> index, int offset, int quantity) {
+    var found = new ArrayList<T>();
+    index.forEach(offset, quantity, found::add);
+    return found;
+  }
+
+  /** {@code value} is boxed once, since the index matches values by identity. */
+  private record Span(int offset, int quantity, Integer value) {}
+}
@@ -1,16 +1,38 @@
 package com.kevinherron.ignition.modbus.address;
 
 import static com.kevinherron.ignition.modbus.address.ModbusAddressParser.ADDRESS_PATTERN;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.ByteOrder;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.ByteOrderModifier;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrder;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrderModifier;
 import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.Test;
 
 class ModbusAddressParserTest {
 
+  /** Data type names for {@link #randomAddress(Random)}, valid and not. */
+  private static final String[] DATA_TYPE_NAMES = {
+    "bool", "int16", "uint16", "int32", "uint32", "int64", "uint64", "float", "double", "string",
+    "string0", "string1", "string12", "string007", "int8", ""
+  };
+
   @Test
   void patternMatchesBasicAddress() {
     assertTrue(ADDRESS_PATTERN.matcher("C1").matches());
@@ -114,4 +136,339 @@ class ModbusAddressParserTest {
 
     assertThrows(Exception.class, () -> ModbusAddressParser.parse("256.HR1"));
   }
+
+  @Test
+  void parseAddressWithDataTypeAndModifiers() throws Exception {
+    var address = ModbusAddressParser.parse("HR<float@LE@LH>10");
+    assertEquals(ModbusArea.HOLDING_REGISTERS, address.getArea());
+    assertEquals(10, address.getOffset());
+    assertSame(ModbusDataType.FLOAT32, address.getDataType());
+    assertEquals(
+        Set.of(
+            new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN),
+            new WordOrderModifier(WordOrder.LOW_HIGH)),
+        address.getDataTypeModifiers());
+
+    var bit = ModbusAddressParser.parse("ir<uint32>3.17");
+    assertEquals(new ModbusDataType.Bit(ModbusDataType.UINT32, 17), bit.getDataType());
+
+    var string = ModbusAddressParser.parse("HR<string10>0");
+    assertEquals(new ModbusDataType.String(10), string.getDataType());
+  }
+
+  @Test
+  void parseInvalidAddress() {
+    for (String address :
+        List.of("", "X1", "HR", "HR<>1", "HR<int8>1", "HR<string0>1", "HR1.", "HR1x", "1HR1")) {
+      assertThrows(Exception.class, () -> ModbusAddressParser.parse(address), address);
+    }
+  }
+
+  @Test
+  void tryParseDoesNotThrow() {
+    var address = ModbusAddressParser.tryParse("5.HR<int32>1").orElseThrow();
+    assertEquals(5, address.getUnitId().orElseThrow());
+    assertEquals(ModbusArea.HOLDING_REGISTERS, address.getArea());
+    assertEquals(1, address.getOffset());
+    assertSame(ModbusDataType.INT32, address.getDataType());
+    assertTrue(ModbusAddressParser.isValid("5.HR<int32>1"));
+
+    for (String invalid : List.of("", "X1", "HR<int8>1", "256.HR1", "HR<int16[0]>0")) {
+      assertTrue(ModbusAddressParser.tryParse(invalid).isEmpty(), invalid);
+      assertFalse(ModbusAddressParser.isValid(invalid), invalid);
+    }
+  }
+
+  @Test
+  void parseArrayAddress() throws Exception {
+    var address = ModbusAddressParser.parse("HR<float[100]>10");
+    var array = assertInstanceOf(ModbusAddress.ArrayAddress.class, address);
+    assertEquals(ModbusArea.HOLDING_REGISTERS, array.getArea());
+    assertEquals(10, array.getOffset());
+    assertSame(ModbusDataType.FLOAT32, array.getDataType());
+    assertArrayEquals(new int[] {100}, array.getDimensions());
+    assertEquals(200, array.getCodec().getRegisterCount());
+
+    var matrix =
+        assertInstanceOf(
+            ModbusAddress.ArrayAddress.class, ModbusAddressParser.parse("IR<int16[2][3]@LE>0"));
+    assertArrayEquals(new int[] {2, 3}, matrix.getDimensions());
+    assertEquals(6, matrix.getLength());
+
+    var coils =
+        assertInstanceOf(
+            ModbusAddress.ArrayAddress.class, ModbusAddressParser.parse("C<bool[16]>0"));
+    assertEquals(16, coils.getLength());
+
+    for (String invalid : List.of("C<int16[2]>0", "HR<int32[2]>0.1", "HR<int16[70000]>0")) {
+      assertFalse(ModbusAddressParser.isValid(invalid), invalid);
+    }
+  }
+
+  @Test
+  void parseArrayElementAddress() throws Exception {
+    var element = ModbusAddressParser.parse("HR<float[10]>4[3]");
+    assertInstanceOf(ModbusAddress.ScalarAddress.class, element);
+    assertEquals(10, element.getOffset());
+    assertSame(ModbusDataType.FLOAT32, element.getDataType());
+
+    assertEquals(10, ModbusAddressParser.parse("HR<float[2][3]>0[1][2]").getOffset());
+    assertEquals(5, ModbusAddressParser.parse("C<bool[8]>0[5]").getOffset());
+
+    for (String invalid : List.of("HR<float[10]>0[10]", "HR<float[2][3]>0[1]")) {
+      assertFalse(ModbusAddressParser.isValid(invalid), invalid);
+    }
+  }
+
+  @Test
+  void parseAgreesWithPattern() {
+    var random = new Random(0x41646472L);
+
+    for (int i = 0; i < 200_000; i++) {
+      String address = randomAddress(random);
+
+      assertEquals(
+          Parsed.of(patternParse(address)),
+          Parsed.of(ModbusAddressParser.tryParse(address).orElse(null)),
+          address);
+    }
+  }
+
+  /**
+   * @return an address assembled from random pieces of the grammar, valid or nearly so, and then
+   *     sometimes mangled further.
+   */
+  private static String randomAddress(Random random) {
+    var sb = new StringBuilder();
+
+    if (random.nextInt(3) == 0) {
+      sb.append(pick(random, "0", "1", "00", "255", "256", "99999999999", "")).append('.');
+    }
+
+    sb.append(randomCase(random, pick(random, "C", "DI", "HR", "IR", "D", "X")));
+
+    if (random.nextInt(3) != 0) {
+      sb.append('<');
+      sb.append(randomCase(random, pick(random, DATA_TYPE_NAMES)));
+      appendNumbers(random, sb);
+      for (int n = random.nextInt(4); n > 0; n--) {
+        sb.append(randomCase(random, pick(random, "@BE", "@LE", "@HL", "@LH", "@", "@XX", "|")));
+      }
+      sb.append('>');
+    }
+
+    sb.append(pick(random, "0", "1", "10", "65535", "65536", "2147483648", ""));
+    appendNumbers(random, sb);
+
+    if (random.nextInt(3) == 0) {
+      sb.append('.').append(pick(random, "0", "15", "31", "64", ""));
+    }
+
+    // insert, delete, or replace a few characters, including some that only fold to ASCII
+    String alphabet = "CDIHRbolntufsg0123456789<>[].@|ELx\u0131\u017F";
+    for (int n = random.nextInt(4); n > 0; n--) {
+      int at = random.nextInt(sb.length() + 1);
+      char c = alphabet.charAt(random.nextInt(alphabet.length()));
+
+      switch (random.nextInt(3)) {
+        case 0 -> sb.insert(at, c);
+        case 1 -> sb.deleteCharAt(Math.min(at, sb.length() - 1));
+        default -> sb.replace(at, Math.min(at + 1, sb.length()), String.valueOf(c));
+      }
+      if (sb.isEmpty()) {
+        break;
+      }
+    }
+
+    return sb.toString();
+  }
+
+  private static void appendNumbers(Random random, StringBuilder sb) {
+    for (int n = random.nextInt(5); n > 0; n--) {
+      sb.append('[').append(pick(random, "0", "1", "2", "3", "10", "70000", "")).append(']');
+    }
+  }
+
+  private static String pick(Random random, String... choices) {
+    return choices[random.nextInt(choices.length)];
+  }
+
+  private static String randomCase(Random random, String s) {
+    var chars = s.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      if (random.nextBoolean()) {
+        chars[i] = Character.toLowerCase(chars[i]);
+      }
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Parse {@code address} the way the parser did before the scanner: match it against {@link
+   * ModbusAddressParser#ADDRESS_PATTERN}, then apply the same checks {@link
+   * ModbusAddressParser#parse(String)} applies to the values matched.
+   *
+   * @return the parsed address, or {@code null} if {@code address} isn't valid.
+   */
+  private static @Nullable ModbusAddress patternParse(String address) {
+    Matcher matcher = ADDRESS_PATTERN.matcher(address);
+    if (!matcher.matches()) {
+      return null;
+    }
+
+    try {
+      Integer unitId = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : null;
+      if (unitId != null && unitId > 255) {
+        return null;
+      }
+
+      ModbusArea area =
+          switch (matcher.group(3).toUpperCase(Locale.ROOT)) {
+            case "C" -> ModbusArea.COILS;
+            case "DI" -> ModbusArea.DISCRETE_INPUTS;
+            case "HR" -> ModbusArea.HOLDING_REGISTERS;
+            default -> ModbusArea.INPUT_REGISTERS;
+          };
+
+      ModbusDataType dataType;
+      if (matcher.group(4) == null) {
+        dataType =
+            switch (area) {
+              case COILS, DISCRETE_INPUTS -> ModbusDataType.BOOL;
+              case HOLDING_REGISTERS, INPUT_REGISTERS -> ModbusDataType.INT16;
+            };
+      } else {
+        String name = matcher.group(4).toUpperCase(Locale.ROOT);
+        dataType =
+            switch (name) {
+              case "BOOL" -> ModbusDataType.BOOL;
+              case "INT16" -> ModbusDataType.INT16;
+              case "UINT16" -> ModbusDataType.UINT16;
+              case "INT32" -> ModbusDataType.INT32;
+              case "UINT32" -> ModbusDataType.UINT32;
+              case "INT64" -> ModbusDataType.INT64;
+              case "UINT64" -> ModbusDataType.UINT64;
+              case "FLOAT" -> ModbusDataType.FLOAT32;
+              case "DOUBLE" -> ModbusDataType.DOUBLE64;
+              default -> new ModbusDataType.String(Integer.parseInt(name.substring(6)));
+            };
+      }
+
+      int[] dimensions = numbers(matcher.group(5));
+
+      var modifiers = new HashSet<DataTypeModifier>();
+      if (matcher.group(6) != null) {
+        for (String token : matcher.group(6).split("@")) {
+          switch (token.toUpperCase(Locale.ROOT)) {
+            case "BE" -> modifiers.add(new ByteOrderModifier(ByteOrder.BIG_ENDIAN));
+            case "LE" -> modifiers.add(new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN));
+            case "HL" -> modifiers.add(new WordOrderModifier(WordOrder.HIGH_LOW));
+            case "LH" -> modifiers.add(new WordOrderModifier(WordOrder.LOW_HIGH));
+            default -> {}
+          }
+        }
+      }
+
+      int offset = Integer.parseInt(matcher.group(7));
+      int[] indices = numbers(matcher.group(8));
+
+      if (matcher.group(9) != null) {
+        dataType = new ModbusDataType.Bit(dataType, Integer.parseInt(matcher.group(9)));
+      }
+
+      if (dimensions.length == 0) {
+        return new ModbusAddress.ScalarAddress(unitId, area, offset, dataType, modifiers);
+      }
+
+      if (indices.length == 0) {
+        boolean bits = area == ModbusArea.COILS || area == ModbusArea.DISCRETE_INPUTS;
+        if (dataType instanceof ModbusDataType.Bit
+            || bits && !(dataType instanceof ModbusDataType.Bool)) {
+          return null;
+        }
+
+        long length = 1;
+        for (int dimension : dimensions) {
+          length *= dimension;
+          if (dimension == 0 || length > 65536) {
+            return null;
+          }
+        }
+
+        return new ModbusAddress.ArrayAddress(
+            unitId, area, offset, dataType, modifiers, dimensions);
+      }
+
+      if (indices.length != dimensions.length) {
+        return null;
+      }
+
+      long element = 0;
+      for (int i = 0; i < dimensions.length; i++) {
+        if (indices[i] >= dimensions[i]) {
+          return null;
+        }
+        element = element * dimensions[i] + indices[i];
+      }
+
+      ModbusDataType elementType =
+          dataType instanceof ModbusDataType.Bit b ? b.underlyingType() : dataType;
+      int size =
+          switch (area) {
+            case COILS, DISCRETE_INPUTS -> 1;
+            case HOLDING_REGISTERS, INPUT_REGISTERS -> elementType.getRegisterCount();
+          };
+
+      long elementOffset = offset + element * size;
+      if (elementOffset > 65535) {
+        return null;
+      }
+
+      return new ModbusAddress.ScalarAddress(
+          unitId, area, (int) elementOffset, dataType, modifiers);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static int[] numbers(@Nullable String group) {
+    if (group == null) {
+      return new int[0];
+    }
+
+    return Pattern.compile("\\d+")
+        .matcher(group)
+        .results()
+        .mapToInt(r -> Integer.parseInt(r.group()))
+        .toArray();
+  }
+
+  /** The parts of a parsed address, comparable with {@code equals}. */
+  private record Parsed(
+      @Nullable Integer unitId,
+      ModbusArea area,
+      int offset,
+      ModbusDataType dataType,
+      Set<DataTypeModifier> modifiers,
+      List<Integer> dimensions) {
+
+    static @Nullable Parsed of(@Nullable ModbusAddress address) {
+      if (address == null) {
+        return null;
+      }
+
+      List<Integer> dimensions =
+          address instanceof ModbusAddress.ArrayAddress a
+              ? Arrays.stream(a.getDimensions()).boxed().toList()
+              : List.of();
+
+      return new Parsed(
+          address.getUnitId().orElse(null),
+          address.getArea(),
+          address.getOffset(),
+          address.getDataType(),
+          Set.copyOf(address.getDataTypeModifiers()),
+          dimensions);
+    }
+  }
 }
@@ -0,0 +1,400 @@
+package com.kevinherron.ignition.modbus.address;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.digitalpetri.util.ByteArrayByteOps;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.ByteOrder;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.ByteOrderModifier;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrder;
+import com.kevinherron.ignition.modbus.address.DataTypeModifier.WordOrderModifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link ModbusCodec} against {@link Baseline}, the conversion every value went through
+ * before codecs existed, on randomly generated register bytes and values.
+ */
+class ModbusCodecTest {
+
+  private static final int ITERATIONS = 1000;
+
+  private static final List<ModbusDataType> FIXED_SIZE =
+      List.of(
+          ModbusDataType.BOOL,
+          ModbusDataType.INT16,
+          ModbusDataType.UINT16,
+          ModbusDataType.INT32,
+          ModbusDataType.UINT32,
+          ModbusDataType.INT64,
+          ModbusDataType.UINT64,
+          ModbusDataType.FLOAT32,
+          ModbusDataType.DOUBLE64);
+
+  private static final List<ModbusDataType> INTEGRAL =
+      List.of(
+          ModbusDataType.INT16,
+          ModbusDataType.UINT16,
+          ModbusDataType.INT32,
+          ModbusDataType.UINT32,
+          ModbusDataType.INT64,
+          ModbusDataType.UINT64);
+
+  private final Random random = new Random(0x4D6F6462L);
+
+  @Test
+  void bigEndianLayout() throws UaException {
+    ModbusCodec codec = ModbusCodec.of(ModbusDataType.INT32, Set.of());
+
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, codec.encode(0x01020304));
+    assertEquals(0x01020304, codec.decode(new byte[] {1, 2, 3, 4}, 0));
+  }
+
+  @Test
+  void lowHighWordOrderLayout() throws UaException {
+    ModbusCodec codec =
+        ModbusCodec.of(ModbusDataType.INT32, Set.of(new WordOrderModifier(WordOrder.LOW_HIGH)));
+
+    assertArrayEquals(new byte[] {3, 4, 1, 2}, codec.encode(0x01020304));
+    assertEquals(0x01020304, codec.decode(new byte[] {3, 4, 1, 2}, 0));
+  }
+
+  @Test
+  void fixedSizeDecodeMatchesBaseline() throws UaException {
+    for (Set<DataTypeModifier> modifiers : orders()) {
+      for (ModbusDataType dataType : FIXED_SIZE) {
+        ModbusCodec codec = ModbusCodec.of(dataType, modifiers);
+        int size = dataType.getRegisterCount() * 2;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+          byte[] bytes = randomBytes(size);
+
+          // decode from the middle of a larger buffer, as a batched read does
+          int index = random.nextInt(8) * 2;
+          byte[] buffer = randomBytes(index + size + 8);
+          System.arraycopy(bytes, 0, buffer, index, size);
+
+          String message = dataType + " " + modifiers + " " + Arrays.toString(bytes);
+          Object expected = Baseline.getValueForBytes(bytes, dataType, modifiers);
+
+          assertEquals(expected, codec.decode(buffer, index), message);
+          assertEquals(expected, codec.decodeVariant(buffer, index).getValue(), message);
+        }
+      }
+    }
+  }
+
+  @Test
+  void fixedSizeEncodeMatchesBaseline() throws UaException {
+    for (Set<DataTypeModifier> modifiers : orders()) {
+      for (ModbusDataType dataType : FIXED_SIZE) {
+        ModbusCodec codec = ModbusCodec.of(dataType, modifiers);
+        int size = dataType.getRegisterCount() * 2;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+          Object value = Baseline.getValueForBytes(randomBytes(size), dataType, modifiers);
+          String message = dataType + " " + modifiers + " " + value;
+
+          byte[] expected = Baseline.getBytesForValue(value, dataType, modifiers);
+          assertArrayEquals(expected, codec.encode(value), message);
+
+          // encode into the middle of a larger buffer without touching its other bytes
+          int index = random.nextInt(8) * 2;
+          byte[] buffer = randomBytes(index + size + 8);
+          byte[] before = buffer.clone();
+          codec.encode(value, buffer, index);
+
+          assertArrayEquals(
+              Arrays.copyOfRange(before, 0, index), Arrays.copyOfRange(buffer, 0, index), message);
+          assertArrayEquals(
+              Arrays.copyOfRange(before, index + size, before.length),
+              Arrays.copyOfRange(buffer, index + size, buffer.length),
+              message);
+          assertEquals(value, codec.decode(buffer, index), message);
+        }
+      }
+    }
+  }
+
+  @Test
+  void fixedSizeEncodeRejectsWrongType() {
+    for (ModbusDataType dataType : FIXED_SIZE) {
+      ModbusCodec codec = ModbusCodec.of(dataType, Set.of());
+
+      assertThrows(UaException.class, () -> codec.encode("0"), dataType.toString());
+    }
+  }
+
+  @Test
+  void bitDecodeMatchesBaseline() throws UaException {
+    for (Set<DataTypeModifier> modifiers : orders()) {
+      for (ModbusDataType underlying : INTEGRAL) {
+        int size = underlying.getRegisterCount() * 2;
+
+        for (int bit = 0; bit < size * 8; bit++) {
+          var dataType = new ModbusDataType.Bit(underlying, bit);
+          ModbusCodec codec = ModbusCodec.of(dataType, modifiers);
+
+          for (int i = 0; i < ITERATIONS / 10; i++) {
+            byte[] bytes = randomBytes(size);
+
+            assertEquals(
+                Baseline.getValueForBytes(bytes, dataType, modifiers),
+                codec.decode(bytes, 0),
+                dataType + " " + modifiers + " " + Arrays.toString(bytes));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void bitEncodeChangesOnlyItsBit() throws UaException {
+    for (Set<DataTypeModifier> modifiers : orders()) {
+      for (ModbusDataType underlying : INTEGRAL) {
+        ModbusCodec underlyingCodec = ModbusCodec.of(underlying, modifiers);
+        int size = underlying.getRegisterCount() * 2;
+        // signed values are sign-extended; only compare the bits the type holds
+        long width = size == 8 ? -1L : (1L << size * 8) - 1;
+
+        for (int bit = 0; bit < size * 8; bit++) {
+          var dataType = new ModbusDataType.Bit(underlying, bit);
+          ModbusCodec codec = ModbusCodec.of(dataType, modifiers);
+          long mask = 1L << bit;
+
+          for (int i = 0; i < ITERATIONS / 10; i++) {
+            byte[] bytes = randomBytes(size);
+            long before =
+                ((Number) Baseline.getValueForBytes(bytes, underlying, modifiers)).longValue();
+            boolean value = random.nextBoolean();
+
+            codec.encode(value, bytes, 0);
+
+            long after =
+                ((Number) Baseline.getValueForBytes(bytes, underlying, modifiers)).longValue();
+            String message = dataType + " " + modifiers + " " + before;
+
+            assertEquals((value ? before | mask : before & ~mask) & width, after & width, message);
+            assertEquals(value, codec.decode(bytes, 0), message);
+            assertEquals(underlyingCodec.getRegisterCount(), codec.getRegisterCount(), message);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void stringMatchesBaseline() throws UaException {
+    for (int length = 1; length <= 20; length++) {
+      var dataType = new ModbusDataType.String(length);
+      ModbusCodec codec = ModbusCodec.of(dataType, Set.of());
+      int size = dataType.getRegisterCount() * 2;
+
+      for (int i = 0; i < ITERATIONS / 10; i++) {
+        // printable ASCII with the occasional NUL terminator
+        var bytes = new byte[size];
+        for (int j = 0; j < size; j++) {
+          bytes[j] = random.nextInt(8) == 0 ? 0 : (byte) (0x20 + random.nextInt(0x5F));
+        }
+
+        Object value = Baseline.getValueForBytes(bytes, dataType, Set.of());
+        String message = dataType + " " + Arrays.toString(bytes);
+
+        assertEquals(value, codec.decode(bytes, 0), message);
+        assertArrayEquals(
+            Baseline.getBytesForValue(value, dataType, Set.of()), codec.encode(value), message);
+        assertEquals(value, codec.decode(codec.encode(value), 0), message);
+      }
+    }
+  }
+
+  @Test
+  void stringEncodeTruncates() throws UaException {
+    ModbusCodec codec = ModbusCodec.of(new ModbusDataType.String(4), Set.of());
+
+    assertArrayEquals("abcd".getBytes(StandardCharsets.UTF_8), codec.encode("abcdef"));
+    assertEquals("ab", codec.decode(codec.encode("ab"), 0));
+  }
+
+  @Test
+  void arrayElementsMatchElementCodec() throws UaException {
+    for (Set<DataTypeModifier> modifiers : orders()) {
+      for (ModbusDataType dataType : FIXED_SIZE) {
+        ModbusCodec element = ModbusCodec.of(dataType, modifiers);
+        ModbusCodec.ArrayCodec codec = ModbusCodec.array(element, new int[] {2, 3});
+        int size = element.getRegisterCount() * 2;
+
+        assertEquals(6, codec.getLength());
+        assertEquals(6 * element.getRegisterCount(), codec.getRegisterCount());
+
+        byte[] bytes = randomBytes(codec.getRegisterCount() * 2);
+        var value = assertInstanceOf(Object[][].class, codec.decode(bytes, 0));
+        String message = dataType + " " + modifiers;
+
+        assertEquals(2, value.length, message);
+        for (int row = 0; row < 2; row++) {
+          assertEquals(3, value[row].length, message);
+          for (int column = 0; column < 3; column++) {
+            int offset = (row * 3 + column) * size;
+            assertEquals(element.decode(bytes, offset), value[row][column], message);
+          }
+        }
+
+        // encoding is the same as encoding each element in turn
+        var expected = new byte[bytes.length];
+        Object[] elements = codec.toElements(value);
+        for (int i = 0; i < elements.length; i++) {
+          element.encode(elements[i], expected, i * size);
+        }
+        assertArrayEquals(expected, codec.encode(value), message);
+        assertArrayEquals(value, (Object[]) codec.decode(codec.encode(value), 0), message);
+      }
+    }
+  }
+
+  @Test
+  void arrayRejectsWrongShape() {
+    ModbusCodec.ArrayCodec codec =
+        ModbusCodec.array(ModbusCodec.of(ModbusDataType.INT16, Set.of()), new int[] {2, 3});
+
+    assertThrows(UaException.class, () -> codec.encode(new Short[] {1, 2, 3, 4, 5, 6}));
+    assertThrows(UaException.class, () -> codec.encode(new Short[][] {{1, 2, 3}}));
+    assertThrows(UaException.class, () -> codec.encode(new Short[][] {{1, 2, 3}, {4, 5}}));
+    assertThrows(UaException.class, () -> codec.encode(new Short[][] {{1, 2, 3}, {4, 5, null}}));
+    assertThrows(UaException.class, () -> codec.encode(new Integer[][] {{1, 2, 3}, {4, 5, 6}}));
+  }
+
+  private byte[] randomBytes(int length) {
+    var bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * @return the modifiers for each combination of byte and word order, including none at all.
+   */
+  private static List<Set<DataTypeModifier>> orders() {
+    return List.of(
+        Set.of(),
+        Set.of(
+            new ByteOrderModifier(ByteOrder.BIG_ENDIAN),
+            new WordOrderModifier(WordOrder.HIGH_LOW)),
+        Set.of(new WordOrderModifier(WordOrder.LOW_HIGH)),
+        Set.of(new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN)),
+        Set.of(
+            new ByteOrderModifier(ByteOrder.LITTLE_ENDIAN),
+            new WordOrderModifier(WordOrder.LOW_HIGH)));
+  }
+
+  /** The conversion between values and register bytes that {@link ModbusCodec} replaced. */
+  private static final class Baseline {
+
+    static Object getValueForBytes(
+        byte[] registerBytes, ModbusDataType dataType, Set<DataTypeModifier> modifiers)
+        throws UaException {
+
+      if (dataType instanceof ModbusDataType.Bit d) {
+        Object value = getValueForBytes(registerBytes, d.underlyingType(), modifiers);
+        return (((Number) value).longValue() & (1L << d.bit())) != 0L;
+      } else if (dataType instanceof ModbusDataType.Bool) {
+        return getByteOps(modifiers).getBoolean(registerBytes, 0);
+      } else if (dataType instanceof ModbusDataType.Int16) {
+        return getByteOps(modifiers).getShort(registerBytes, 0);
+      } else if (dataType instanceof ModbusDataType.UInt16) {
+        return UShort.valueOf(getByteOps(modifiers).getShort(registerBytes, 0));
+      } else if (dataType instanceof ModbusDataType.Int32) {
+        return getByteOps(modifiers).getInt(registerBytes, 0);
+      } else if (dataType instanceof ModbusDataType.UInt32) {
+        return UInteger.valueOf(getByteOps(modifiers).getInt(registerBytes, 0));
+      } else if (dataType instanceof ModbusDataType.Int64) {
+        return getByteOps(modifiers).getLong(registerBytes, 0);
+      } else if (dataType instanceof ModbusDataType.UInt64) {
+        return ULong.valueOf(getByteOps(modifiers).getLong(registerBytes, 0));
+      } else if (dataType instanceof ModbusDataType.Float32) {
+        return getByteOps(modifiers).getFloat(registerBytes, 0);
+      } else if (dataType instanceof ModbusDataType.Double64) {
+        return getByteOps(modifiers).getDouble(registerBytes, 0);
+      } else {
+        var d = (ModbusDataType.String) dataType;
+        int length = d.length();
+        for (int i = 0; i < length; i++) {
+          if (registerBytes[i] == 0) {
+            length = i;
+            break;
+          }
+        }
+        return new String(registerBytes, 0, length, StandardCharsets.UTF_8);
+      }
+    }
+
+    static byte[] getBytesForValue(
+        Object value, ModbusDataType dataType, Set<DataTypeModifier> modifiers) {
+
+      var valueBytes = new byte[dataType.getRegisterCount() * 2];
+      ByteArrayByteOps byteOps = getByteOps(modifiers);
+
+      if (value instanceof Boolean v) {
+        byteOps.setBoolean(valueBytes, 0, v);
+      } else if (value instanceof Short v) {
+        byteOps.setShort(valueBytes, 0, v);
+      } else if (value instanceof UShort v) {
+        byteOps.setShort(valueBytes, 0, v.shortValue());
+      } else if (value instanceof Integer v) {
+        byteOps.setInt(valueBytes, 0, v);
+      } else if (value instanceof UInteger v) {
+        byteOps.setInt(valueBytes, 0, v.intValue());
+      } else if (value instanceof Long v) {
+        byteOps.setLong(valueBytes, 0, v);
+      } else if (value instanceof ULong v) {
+        byteOps.setLong(valueBytes, 0, v.longValue());
+      } else if (value instanceof Float v) {
+        byteOps.setFloat(valueBytes, 0, v);
+      } else if (value instanceof Double v) {
+        byteOps.setDouble(valueBytes, 0, v);
+      } else {
+        byte[] stringBytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(stringBytes.length, valueBytes.length);
+        System.arraycopy(stringBytes, 0, valueBytes, 0, length);
+      }
+
+      return valueBytes;
+    }
+
+    static ByteArrayByteOps getByteOps(Set<DataTypeModifier> modifiers) {
+      ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+      WordOrder wordOrder = WordOrder.HIGH_LOW;
+
+      for (DataTypeModifier modifier : modifiers) {
+        if (modifier instanceof ByteOrderModifier m) {
+          byteOrder = m.byteOrder();
+        }
+        if (modifier instanceof WordOrderModifier m) {
+          wordOrder = m.wordOrder();
+        }
+      }
+
+      return switch (byteOrder) {
+        case BIG_ENDIAN ->
+            switch (wordOrder) {
+              case HIGH_LOW -> ByteArrayByteOps.BIG_ENDIAN;
+              case LOW_HIGH -> ByteArrayByteOps.BIG_ENDIAN_LOW_HIGH;
+            };
+        case LITTLE_ENDIAN ->
+            switch (wordOrder) {
+              case HIGH_LOW -> ByteArrayByteOps.LITTLE_ENDIAN;
+              case LOW_HIGH -> ByteArrayByteOps.LITTLE_ENDIAN_LOW_HIGH;
+            };
+      };
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.kevinherron.ignition.modbus.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BitAreaFileTest {
+
+  @TempDir Path folder;
+
+  @Test
+  void migratesLegacyFile() throws IOException {
+    // one byte per coil; any non-zero byte is a set coil
+    var legacy = new byte[BitArea.SIZE];
+    var random = new Random(0x4C656761L);
+    for (int i = 0; i < legacy.length; i++) {
+      legacy[i] = random.nextInt(3) == 0 ? (byte) (1 + random.nextInt(255)) : 0;
+    }
+    legacy[0] = 1;
+    legacy[63] = (byte) 0xFF;
+    legacy[64] = 0;
+    legacy[BitArea.SIZE - 1] = 1;
+
+    Path path = folder.resolve("coils.bin");
+    Files.write(path, legacy);
+
+    BitAreaFile.prepare(path);
+
+    assertEquals(BitAreaFile.HEADER_SIZE + BitAreaFile.DATA_SIZE, Files.size(path));
+    assertFalse(Files.exists(path.resolveSibling("coils.bin.tmp")));
+
+    ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path), 0, BitAreaFile.HEADER_SIZE);
+    assertEquals(BitAreaFile.MAGIC, header.getInt());
+    assertEquals(BitAreaFile.VERSION, header.getInt());
+    assertEquals(BitArea.SIZE, header.getInt());
+    assertEquals(0, header.getInt());
+
+    BitArea bits = map(path);
+    for (int i = 0; i < legacy.length; i++) {
+      assertEquals(legacy[i] != 0, bits.get(i), "bit " + i);
+    }
+  }
+
+  @Test
+  void migratesShortLegacyFile() throws IOException {
+    Path path = folder.resolve("discreteInputs.bin");
+    Files.write(path, new byte[] {0, 1, 0, 1, 1});
+
+    BitAreaFile.prepare(path);
+
+    BitArea bits = map(path);
+    var expected = new byte[] {0b11010};
+    var actual = new byte[1];
+    bits.read(0, 5, actual);
+    assertArrayEquals(expected, actual);
+
+    for (int i = 5; i < BitArea.SIZE; i++) {
+      assertFalse(bits.get(i), "bit " + i);
+    }
+  }
+
+  @Test
+  void createsMissingFile() throws IOException {
+    Path path = folder.resolve("coils.bin");
+
+    BitAreaFile.prepare(path);
+
+    byte[] file = Files.readAllBytes(path);
+    assertEquals(BitAreaFile.HEADER_SIZE + BitAreaFile.DATA_SIZE, file.length);
+    assertEquals(BitAreaFile.MAGIC, ByteBuffer.wrap(file).getInt(0));
+    for (int i = BitAreaFile.HEADER_SIZE; i < file.length; i++) {
+      assertEquals(0, file[i]);
+    }
+  }
+
+  @Test
+  void rerunningMigrationIsNoOp() throws IOException {
+    var legacy = new byte[BitArea.SIZE];
+    legacy[3] = 1;
+    legacy[70] = 1;
+
+    Path path = folder.resolve("coils.bin");
+    Files.write(path, legacy);
+    BitAreaFile.prepare(path);
+
+    // modify the migrated file the way the process image would
+    map(path).set(4, true);
+    byte[] migrated = Files.readAllBytes(path);
+
+    BitAreaFile.prepare(path);
+
+    assertArrayEquals(migrated, Files.readAllBytes(path));
+
+    BitArea bits = map(path);
+    assertTrue(bits.get(3));
+    assertTrue(bits.get(4));
+    assertTrue(bits.get(70));
+  }
+
+  @Test
+  void rejectsUnsupportedVersion() throws IOException {
+    Path path = folder.resolve("coils.bin");
+    BitAreaFile.prepare(path);
+
+    byte[] file = Files.readAllBytes(path);
+    ByteBuffer.wrap(file).putInt(4, BitAreaFile.VERSION + 1);
+    Files.write(path, file);
+
+    assertThrows(IOException.class, () -> BitAreaFile.prepare(path));
+    assertArrayEquals(file, Files.readAllBytes(path));
+  }
+
+  private static BitArea map(Path path) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      return new MappedBitArea(buffer);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.kevinherron.ignition.modbus.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks the word-at-a-time reads and writes of {@link BitArea} against one bit at a time. */
+class BitAreaTest {
+
+  private final Random random = new Random(0x42697473L);
+
+  @TempDir Path folder;
+
+  @Test
+  void writeWithinOneWord() {
+    var area = new HeapBitArea();
+    area.setWord(0, -1L);
+
+    area.write(3, 4, new byte[] {0b0101});
+
+    assertEquals(~0b1010_000L, area.getWord(0));
+  }
+
+  @Test
+  void writeAcrossWordBoundary() {
+    var area = new HeapBitArea();
+    area.setWord(0, 0x00FF_FFFF_FFFF_FFFFL);
+    area.setWord(1, 0xFFFF_FFFF_FFFF_FF00L);
+
+    // bits 60 through 69: word 0 bits 60-63 and word 1 bits 0-5, all set
+    area.write(60, 10, new byte[] {(byte) 0xFF, 0b11});
+
+    assertEquals(0xF0FF_FFFF_FFFF_FFFFL, area.getWord(0));
+    assertEquals(0xFFFF_FFFF_FFFF_FF3FL, area.getWord(1));
+  }
+
+  @Test
+  void writeSpanningWholeWords() {
+    var area = new HeapBitArea();
+    var src = new byte[25];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = (byte) 0xAA;
+    }
+
+    // bits 36 through 235: part of word 0, all of words 1 and 2, part of word 3
+    area.write(36, 200, src);
+
+    assertEquals(0xAAAA_AAA0_0000_0000L, area.getWord(0));
+    assertEquals(0xAAAA_AAAA_AAAA_AAAAL, area.getWord(1));
+    assertEquals(0xAAAA_AAAA_AAAA_AAAAL, area.getWord(2));
+    assertEquals(0x0000_0AAA_AAAA_AAAAL, area.getWord(3));
+  }
+
+  @Test
+  void unalignedWritesMatchBitByBit() throws IOException {
+    for (BitArea area : areas()) {
+      var expected = new boolean[BitArea.SIZE];
+      for (int i = 0; i < 200; i++) {
+        int index = random.nextInt(BitArea.WORDS);
+        long word = random.nextLong();
+        area.setWord(index, word);
+        for (int bit = 0; bit < 64; bit++) {
+          expected[index * 64 + bit] = (word & (1L << bit)) != 0L;
+        }
+      }
+
+      for (int i = 0; i < 2000; i++) {
+        int quantity = 1 + random.nextInt(i % 10 == 0 ? 2000 : 200);
+        int offset = random.nextInt(BitArea.SIZE - quantity + 1);
+        int srcOffset = random.nextInt(4);
+
+        var src = new byte[srcOffset + (quantity + 7) / 8 + random.nextInt(2)];
+        random.nextBytes(src);
+
+        area.write(offset, quantity, src, srcOffset);
+
+        for (int bit = 0; bit < quantity; bit++) {
+          expected[offset + bit] = (src[srcOffset + bit / 8] & (1 << (bit % 8))) != 0;
+        }
+      }
+
+      for (int bit = 0; bit < BitArea.SIZE; bit++) {
+        assertEquals(expected[bit], area.get(bit), "bit " + bit);
+      }
+    }
+  }
+
+  @Test
+  void unalignedReadsMatchBitByBit() throws IOException {
+    for (BitArea area : areas()) {
+      for (int index = 0; index < BitArea.WORDS; index++) {
+        area.setWord(index, random.nextLong());
+      }
+
+      for (int i = 0; i < 2000; i++) {
+        int quantity = 1 + random.nextInt(i % 10 == 0 ? 2000 : 200);
+        int offset = random.nextInt(BitArea.SIZE - quantity + 1);
+        int dstOffset = random.nextInt(4);
+        int length = dstOffset + (quantity + 7) / 8;
+
+        // bytes around the bits read are left as they were
+        var dst = new byte[length + 1];
+        random.nextBytes(dst);
+        byte[] expected = dst.clone();
+        for (int bit = 0; bit < quantity; bit++) {
+          int b = dstOffset + bit / 8;
+          if (area.get(offset + bit)) {
+            expected[b] |= (byte) (1 << (bit % 8));
+          } else {
+            expected[b] &= (byte) ~(1 << (bit % 8));
+          }
+        }
+
+        area.read(offset, quantity, dst, dstOffset);
+
+        assertArrayEquals(expected, dst, "offset " + offset + " quantity " + quantity);
+      }
+    }
+  }
+
+  @Test
+  void rejectsOutOfBounds() {
+    var area = new HeapBitArea();
+
+    assertThrows(IndexOutOfBoundsException.class, () -> area.write(65535, 2, new byte[1]));
+    assertThrows(IndexOutOfBoundsException.class, () -> area.read(-1, 1, new byte[1]));
+    assertThrows(IndexOutOfBoundsException.class, () -> area.write(0, 9, new byte[1]));
+    assertThrows(IndexOutOfBoundsException.class, () -> area.read(0, 8, new byte[1], 1));
+  }
+
+  /**
+   * @return a {@link HeapBitArea} and a {@link MappedBitArea} over a new persistence file.
+   */
+  private BitArea[] areas() throws IOException {
+    Path path = folder.resolve("coils%d.bin".formatted(random.nextInt(Integer.MAX_VALUE)));
+    BitAreaFile.prepare(path);
+
+    try (FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      return new BitArea[] {new HeapBitArea(), new MappedBitArea(buffer)};
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package com.kevinherron.ignition.modbus.image;
+
+import static com.kevinherron.ignition.modbus.image.WalPersistence.WAL_FILENAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.kevinherron.ignition.modbus.address.ModbusAddress.ModbusArea;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Crashes are simulated by copying a device folder while its {@link WalPersistence} is still open,
+ * so the copy holds whatever was committed to the log but not yet checkpointed, and then opening
+ * the copy.
+ */
+class WalPersistenceTest {
+
+  private static final long NO_CHECKPOINTS = TimeUnit.HOURS.toMillis(1);
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @TempDir Path folder;
+
+  @AfterEach
+  void shutdownScheduler() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void replaysCompleteRecords() throws IOException {
+    Path crashed =
+        crashAfter(
+            image -> {
+              image.with(
+                  tx -> {
+                    tx.writeRegisters(ModbusArea.HOLDING_REGISTERS, 0, 2, new byte[] {1, 2, 3, 4});
+                    tx.writeBits(ModbusArea.COILS, 5, 3, new byte[] {0b101});
+                  });
+              image.with(tx -> tx.writeRegister(ModbusArea.INPUT_REGISTERS, 100, 0xBEEF));
+            });
+
+    assertTrue(Files.size(crashed.resolve(WAL_FILENAME)) > 0);
+
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(0x0102, readRegister(image, ModbusArea.HOLDING_REGISTERS, 0));
+          assertEquals(0x0304, readRegister(image, ModbusArea.HOLDING_REGISTERS, 1));
+          assertTrue(readBit(image, ModbusArea.COILS, 5));
+          assertFalse(readBit(image, ModbusArea.COILS, 6));
+          assertTrue(readBit(image, ModbusArea.COILS, 7));
+          assertEquals(0xBEEF, readRegister(image, ModbusArea.INPUT_REGISTERS, 100));
+        });
+
+    // opening checkpointed what was replayed and truncated the log
+    assertEquals(0, Files.size(crashed.resolve(WAL_FILENAME)));
+
+    Files.delete(crashed.resolve(WAL_FILENAME));
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(0x0102, readRegister(image, ModbusArea.HOLDING_REGISTERS, 0));
+          assertTrue(readBit(image, ModbusArea.COILS, 7));
+          assertEquals(0xBEEF, readRegister(image, ModbusArea.INPUT_REGISTERS, 100));
+        });
+  }
+
+  @Test
+  void discardsTornTail() throws IOException {
+    Path crashed =
+        crashAfter(
+            image -> {
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 10, 1));
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 11, 2));
+            });
+
+    // the second record was only partly written
+    Path wal = crashed.resolve(WAL_FILENAME);
+    try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(1, readRegister(image, ModbusArea.HOLDING_REGISTERS, 10));
+          assertEquals(0, readRegister(image, ModbusArea.HOLDING_REGISTERS, 11));
+        });
+  }
+
+  @Test
+  void stopsAtChecksumMismatch() throws IOException {
+    Path crashed =
+        crashAfter(
+            image -> {
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 20, 1));
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 21, 2));
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 22, 3));
+            });
+
+    // corrupt the last byte of the second record's value; every record is the same length
+    Path wal = crashed.resolve(WAL_FILENAME);
+    byte[] bytes = Files.readAllBytes(wal);
+    int recordLength = bytes.length / 3;
+    bytes[2 * recordLength - 1] ^= 0x01;
+    Files.write(wal, bytes);
+
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(1, readRegister(image, ModbusArea.HOLDING_REGISTERS, 20));
+          assertEquals(0, readRegister(image, ModbusArea.HOLDING_REGISTERS, 21));
+          assertEquals(0, readRegister(image, ModbusArea.HOLDING_REGISTERS, 22));
+        });
+  }
+
+  @Test
+  void rejectsMalformedRecordWithoutApplyingAnyOfIt() throws IOException {
+    Path crashed =
+        crashAfter(
+            image -> image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 30, 1)));
+
+    // a checksummed record whose first part is valid and second has a negative quantity
+    ByteBuffer payload = ByteBuffer.allocate(4 + 9 + 2 + 9);
+    payload.putInt(2);
+    payload.put((byte) ModbusArea.HOLDING_REGISTERS.ordinal()).putInt(31).putInt(1);
+    payload.putShort((short) 0x1234);
+    payload.put((byte) ModbusArea.HOLDING_REGISTERS.ordinal()).putInt(0).putInt(-1);
+    appendRecord(crashed.resolve(WAL_FILENAME), payload.array());
+
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(1, readRegister(image, ModbusArea.HOLDING_REGISTERS, 30));
+          assertEquals(0, readRegister(image, ModbusArea.HOLDING_REGISTERS, 31));
+        });
+  }
+
+  @Test
+  void appendsAfterReplayedRecordsWhenCheckpointFails() throws IOException {
+    // writes to /dev/full fail with ENOSPC and forcing it fails, so every checkpoint does too
+    Path full = Path.of("/dev/full");
+    assumeTrue(Files.isWritable(full), "/dev/full is needed to make checkpoints fail");
+
+    Path crashed =
+        crashAfter(
+            image -> {
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 50, 1));
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 51, 2));
+              image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 52, 3));
+            });
+
+    Path inputRegisters =
+        crashed.resolve(PersistenceFiles.filename(ModbusArea.INPUT_REGISTERS));
+    Files.delete(inputRegisters);
+    Files.createSymbolicLink(inputRegisters, full);
+
+    // the log isn't truncated, so the new record must go after the replayed ones
+    withOpen(
+        crashed, image -> image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 51, 7)));
+
+    Files.delete(inputRegisters);
+
+    withOpen(
+        crashed,
+        image -> {
+          assertEquals(1, readRegister(image, ModbusArea.HOLDING_REGISTERS, 50));
+          assertEquals(7, readRegister(image, ModbusArea.HOLDING_REGISTERS, 51));
+          assertEquals(3, readRegister(image, ModbusArea.HOLDING_REGISTERS, 52));
+        });
+  }
+
+  @Test
+  void checkpointWritesFilesAndTruncatesLog() throws Exception {
+    Path path = folder.resolve("device");
+    Path wal = path.resolve(WAL_FILENAME);
+
+    var persistence = new WalPersistence(path, 50, scheduler, Runnable::run);
+    ModbusProcessImage image = persistence.open();
+    try {
+      image.with(tx -> tx.writeRegister(ModbusArea.HOLDING_REGISTERS, 40, 0x4040));
+      assertTrue(Files.size(wal) > 0);
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (Files.size(wal) > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, Files.size(wal));
+
+      // with the log gone, the value must come from the persistence files
+      Path copy = copy(path, folder.resolve("copy"));
+      Files.delete(copy.resolve(WAL_FILENAME));
+      withOpen(
+          copy,
+          copied -> assertEquals(0x4040, readRegister(copied, ModbusArea.HOLDING_REGISTERS, 40)));
+    } finally {
+      persistence.close();
+    }
+  }
+
+  /**
+   * Open a persistence, run {@code modifications}, and copy its folder before closing it.
+   *
+   * @return the copied folder.
+   */
+  private Path crashAfter(ImageConsumer modifications) throws IOException {
+    Path path = folder.resolve("device");
+
+    var persistence = new WalPersistence(path, NO_CHECKPOINTS, scheduler, Runnable::run);
+    ModbusProcessImage image = persistence.open();
+    try {
+      modifications.accept(image);
+
+      return copy(path, folder.resolve("crashed"));
+    } finally {
+      persistence.close();
+    }
+  }
+
+  private void withOpen(Path path, ImageConsumer consumer) throws IOException {
+    var persistence = new WalPersistence(path, NO_CHECKPOINTS, scheduler, Runnable::run);
+    ModbusProcessImage image = persistence.open();
+    try {
+      consumer.accept(image);
+    } finally {
+      persistence.close();
+    }
+  }
+
+  private static Path copy(Path from, Path to) throws IOException {
+    Files.createDirectories(to);
+    try (Stream<Path> files = Files.list(from)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.copy(file, to.resolve(file.getFileName()));
+      }
+    }
+    return to;
+  }
+
+  private static void appendRecord(Path wal, byte[] payload) throws IOException {
+    var crc = new CRC32();
+    crc.update(payload);
+
+    ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+    record.putInt(payload.length);
+    record.putInt((int) crc.getValue());
+    record.put(payload);
+    record.flip();
+
+    try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.APPEND)) {
+      channel.write(record);
+    }
+  }
+
+  private static int readRegister(ModbusProcessImage image, ModbusArea area, int offset) {
+    return image.get(tx -> tx.readRegister(area, offset));
+  }
+
+  private static boolean readBit(ModbusProcessImage image, ModbusArea area, int offset) {
+    return image.get(tx -> tx.readBit(area, offset));
+  }
+
+  @FunctionalInterface
+  private interface ImageConsumer {
+    void accept(ModbusProcessImage image) throws IOException;
+  }
+}
@@ -0,0 +1,89 @@
+package com.kevinherron.ignition.modbus.metrics;
+
+import static com.kevinherron.ignition.modbus.metrics.LatencyHistogram.MAX_LATENCY;
+import static com.kevinherron.ignition.modbus.metrics.LatencyHistogram.highestEquivalent;
+import static com.kevinherron.ignition.modbus.metrics.LatencyHistogram.index;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void bucketsAtFirstSplit() {
+    assertEquals(63, index(63));
+    assertEquals(64, index(64));
+    assertEquals(64, index(65));
+    assertEquals(65, index(66));
+
+    assertEquals(63, highestEquivalent(63));
+    assertEquals(65, highestEquivalent(64));
+    assertEquals(67, highestEquivalent(65));
+  }
+
+  @Test
+  void bucketsAreContiguous() {
+    int last = index(MAX_LATENCY);
+    assertEquals(MAX_LATENCY, highestEquivalent(last));
+
+    long lowest = 0;
+    for (int i = 0; i <= last; i++) {
+      long highest = highestEquivalent(i);
+
+      assertTrue(highest >= lowest, "bucket " + i);
+      assertEquals(i, index(lowest), "lowest of bucket " + i);
+      assertEquals(i, index(highest), "highest of bucket " + i);
+      if (i < last) {
+        assertEquals(i + 1, index(highest + 1), "after bucket " + i);
+      }
+
+      // each bucket is at most 1/32 as wide as the smallest latency in it
+      assertTrue(highest - lowest <= lowest / 32, "width of bucket " + i);
+
+      lowest = highest + 1;
+    }
+  }
+
+  @Test
+  void clampsToMaxLatency() {
+    var histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(2, histogram.getCount());
+    assertEquals(MAX_LATENCY, histogram.getMax());
+    assertEquals(MAX_LATENCY, histogram.getPercentile(100));
+    assertEquals(0, histogram.getPercentile(50));
+  }
+
+  @Test
+  void percentilesAreWithinBucketPrecision() {
+    var random = new Random(0x4C617465L);
+    var histogram = new LatencyHistogram();
+
+    // spread across every power of two up to MAX_LATENCY
+    var latencies = new long[100_000];
+    for (int i = 0; i < latencies.length; i++) {
+      int bits = 1 + random.nextInt(36);
+      latencies[i] = random.nextLong() >>> (64 - bits);
+      histogram.record(latencies[i]);
+    }
+    Arrays.sort(latencies);
+
+    for (double percentile : new double[] {0, 1, 10, 25, 50, 75, 90, 99, 99.9, 99.99, 100}) {
+      int rank = Math.max(1, (int) Math.ceil(latencies.length * percentile / 100.0));
+      long exact = latencies[rank - 1];
+      long reported = histogram.getPercentile(percentile);
+
+      assertTrue(reported >= exact, "p" + percentile + " below " + exact + ": " + reported);
+      assertTrue(
+          reported - exact <= exact / 32,
+          "p" + percentile + " too far above " + exact + ": " + reported);
+    }
+
+    assertEquals(latencies[latencies.length - 1], histogram.getMax());
+  }
+}